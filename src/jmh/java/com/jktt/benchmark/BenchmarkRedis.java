@@ -0,0 +1,48 @@
+package com.jktt.benchmark;
+
+import com.github.fppt.jedismock.RedisServer;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.io.IOException;
+
+/**
+ * 基准测试使用的Redis
+ * 默认启动进程内的jedis-mock 指定 -Dredis.host / -Dredis.port 时连接真实Redis
+ */
+public class BenchmarkRedis {
+
+    private RedisServer server;
+    private LettuceConnectionFactory connectionFactory;
+    private StringRedisTemplate stringRedisTemplate;
+
+    public static BenchmarkRedis start() throws IOException {
+        BenchmarkRedis redis = new BenchmarkRedis();
+        String host = System.getProperty("redis.host");
+        int port;
+        if (host == null) {
+            redis.server = RedisServer.newRedisServer();
+            redis.server.start();
+            host = redis.server.getHost();
+            port = redis.server.getBindPort();
+        } else {
+            port = Integer.getInteger("redis.port", 6379);
+        }
+        redis.connectionFactory = new LettuceConnectionFactory(new RedisStandaloneConfiguration(host, port));
+        redis.connectionFactory.afterPropertiesSet();
+        redis.stringRedisTemplate = new StringRedisTemplate(redis.connectionFactory);
+        return redis;
+    }
+
+    public StringRedisTemplate template() {
+        return stringRedisTemplate;
+    }
+
+    public void stop() throws IOException {
+        connectionFactory.destroy();
+        if (server != null) {
+            server.stop();
+        }
+    }
+}
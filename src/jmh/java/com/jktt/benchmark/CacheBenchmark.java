@@ -0,0 +1,137 @@
+package com.jktt.benchmark;
+
+import com.jktt.entity.Shop;
+import com.jktt.utils.CacheClient;
+import com.jktt.utils.CacheMetrics;
+import com.jktt.utils.CacheRebuildScheduler;
+import com.jktt.utils.CacheInvalidationBus;
+import com.jktt.utils.IdBloomFilter;
+import com.jktt.utils.LocalCacheManager;
+import com.jktt.utils.TwoLevelCacheClient;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static com.jktt.utils.RedisConstants.CACHE_SHOP_KEY;
+
+/**
+ * TwoLevelCacheClient 的 L1命中 / L2命中 / 未命中回源 以及 CacheClient.queryWithLogicalExpire
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+// jedis-mock的工作线程不是守护线程 缩短fork退出时的等待
+@Fork(value = 1, jvmArgsAppend = "-Djmh.shutdownTimeout=1")
+public class CacheBenchmark {
+
+    private static final Long HOT_ID = 1L;
+    private static final Long MISS_ID = 2L;
+
+    // L1模式 object: 缓存对象 json: 缓存json字符串
+    @Param({"object", "json"})
+    public String mode;
+
+    private BenchmarkRedis redis;
+    private LocalCacheManager localCacheManager;
+    private TwoLevelCacheClient twoLevelCacheClient;
+    private CacheClient cacheClient;
+    private CacheRebuildScheduler rebuildScheduler;
+    private Shop shop;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        redis = BenchmarkRedis.start();
+        StringRedisTemplate template = redis.template();
+
+        // 指标计入内存registry 和线上一样有计数开销
+        CacheMetrics cacheMetrics = new CacheMetrics();
+        ReflectionTestUtils.setField(cacheMetrics, "meterRegistry", new SimpleMeterRegistry());
+
+        localCacheManager = new LocalCacheManager();
+        ReflectionTestUtils.setField(localCacheManager, "cacheMetrics", cacheMetrics);
+        ReflectionTestUtils.setField(localCacheManager, "localCache", Caffeine.newBuilder()
+                .maximumSize(10_000).expireAfterWrite(300, TimeUnit.SECONDS).<String, String>build());
+        ReflectionTestUtils.setField(localCacheManager, "mode", mode);
+        ReflectionTestUtils.setField(localCacheManager, "maxWeight", 16L * 1024 * 1024);
+        ReflectionTestUtils.setField(localCacheManager, "expireSeconds", 300L);
+
+        ThreadPoolTaskExecutor rebuildExecutor = new ThreadPoolTaskExecutor();
+        rebuildExecutor.setCorePoolSize(4);
+        rebuildExecutor.setQueueCapacity(1000);
+        rebuildExecutor.initialize();
+        rebuildScheduler = new CacheRebuildScheduler();
+        ReflectionTestUtils.setField(rebuildScheduler, "cacheRebuildExecutor", rebuildExecutor);
+        ReflectionTestUtils.setField(rebuildScheduler, "cacheMetrics", cacheMetrics);
+        ReflectionTestUtils.setField(rebuildScheduler, "drainSeconds", 1L);
+        rebuildScheduler.start();
+
+        CacheInvalidationBus bus = new CacheInvalidationBus();
+        ReflectionTestUtils.setField(bus, "stringRedisTemplate", template);
+        ReflectionTestUtils.setField(bus, "localCacheManager", localCacheManager);
+        // 未加载的布隆过滤器全部放行
+        IdBloomFilter idBloomFilter = new IdBloomFilter();
+
+        twoLevelCacheClient = new TwoLevelCacheClient();
+        ReflectionTestUtils.setField(twoLevelCacheClient, "stringRedisTemplate", template);
+        ReflectionTestUtils.setField(twoLevelCacheClient, "localCacheManager", localCacheManager);
+        ReflectionTestUtils.setField(twoLevelCacheClient, "cacheInvalidationBus", bus);
+        ReflectionTestUtils.setField(twoLevelCacheClient, "idBloomFilter", idBloomFilter);
+        ReflectionTestUtils.setField(twoLevelCacheClient, "cacheMetrics", cacheMetrics);
+        ReflectionTestUtils.setField(twoLevelCacheClient, "cacheRebuildScheduler", rebuildScheduler);
+
+        cacheClient = new CacheClient();
+        ReflectionTestUtils.setField(cacheClient, "stringRedisTemplate", template);
+        ReflectionTestUtils.setField(cacheClient, "idBloomFilter", idBloomFilter);
+        ReflectionTestUtils.setField(cacheClient, "cacheMetrics", cacheMetrics);
+        ReflectionTestUtils.setField(cacheClient, "cacheRebuildScheduler", rebuildScheduler);
+
+        shop = new Shop().setId(HOT_ID).setName("103茶餐厅").setTypeId(1L).setArea("大关")
+                .setAddress("金华路锦昌文华苑29号").setX(120.149192).setY(30.316078)
+                .setAvgPrice(80L).setSold(4215).setComments(3035).setScore(37).setOpenHours("10:00-22:00");
+        twoLevelCacheClient.setWithLogicalExpire(CACHE_SHOP_KEY + HOT_ID, shop, 1L, TimeUnit.DAYS);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        rebuildScheduler.stop();
+        redis.stop();
+    }
+
+    @Benchmark
+    public Shop twoLevelL1Hit() {
+        return twoLevelCacheClient.queryWithLogicalExpire(
+                CACHE_SHOP_KEY, HOT_ID, Shop.class, id -> shop, 1L, TimeUnit.DAYS);
+    }
+
+    @Benchmark
+    public Shop twoLevelL2Hit() {
+        // 每次先清掉L1 强制走Redis
+        localCacheManager.invalidate(CACHE_SHOP_KEY + HOT_ID);
+        return twoLevelCacheClient.queryWithLogicalExpire(
+                CACHE_SHOP_KEY, HOT_ID, Shop.class, id -> shop, 1L, TimeUnit.DAYS);
+    }
+
+    @Benchmark
+    public Shop twoLevelMiss() {
+        // 清掉两级缓存 强制回源
+        String key = CACHE_SHOP_KEY + MISS_ID;
+        localCacheManager.invalidate(key);
+        redis.template().delete(key);
+        return twoLevelCacheClient.queryWithPassThrough(
+                CACHE_SHOP_KEY, MISS_ID, Shop.class, id -> shop, 30L, TimeUnit.MINUTES);
+    }
+
+    @Benchmark
+    public Shop cacheClientLogicalExpire() {
+        return cacheClient.queryWithLogicalExpire(
+                CACHE_SHOP_KEY, HOT_ID, Shop.class, id -> shop, 1L, TimeUnit.DAYS);
+    }
+}
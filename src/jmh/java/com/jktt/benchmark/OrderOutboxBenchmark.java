@@ -0,0 +1,129 @@
+package com.jktt.benchmark;
+
+import cn.hutool.json.JSONUtil;
+import com.jktt.entity.VoucherOrder;
+import com.jktt.utils.OrderDeadLetterQueue;
+import com.jktt.utils.OrderOutbox;
+import com.jktt.utils.OrderOutboxRelay;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import static com.jktt.utils.SystemConstants.SECKILL_ORDER_TOPIC;
+
+/**
+ * 秒杀下单线程的订单投递开销 直接send（不等确认） 与 写发件箱 对比
+ * Kafka用立即完成的MockProducer代替 没有消息累加器、压缩和网络 是直接send耗时的下限
+ * outbox同时运行发送线程 把发件箱中的订单发送到同一个MockProducer
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class OrderOutboxBenchmark {
+
+    private final AtomicLong orderId = new AtomicLong();
+    private KafkaTemplate<String, String> kafkaTemplate;
+    private Path dir;
+    private OrderOutbox orderOutbox;
+    private OrderOutboxRelay relay;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        BenchmarkProducer producer = new BenchmarkProducer();
+        kafkaTemplate = new KafkaTemplate<>(() -> producer);
+
+        dir = Files.createTempDirectory("outbox-benchmark");
+        orderOutbox = new OrderOutbox();
+        ReflectionTestUtils.setField(orderOutbox, "dir", dir.toString());
+        ReflectionTestUtils.setField(orderOutbox, "segmentBytes", 64 * 1024 * 1024);
+        orderOutbox.open();
+
+        OrderDeadLetterQueue deadLetterQueue = new OrderDeadLetterQueue();
+        ReflectionTestUtils.setField(deadLetterQueue, "kafkaTemplate", kafkaTemplate);
+        relay = new OrderOutboxRelay();
+        ReflectionTestUtils.setField(relay, "orderOutbox", orderOutbox);
+        ReflectionTestUtils.setField(relay, "orderDeadLetterQueue", deadLetterQueue);
+        ReflectionTestUtils.setField(relay, "kafkaTemplate", kafkaTemplate);
+        ReflectionTestUtils.setField(relay, "batchSize", 500);
+        ReflectionTestUtils.setField(relay, "lingerMillis", 5L);
+        ReflectionTestUtils.setField(relay, "sendTimeoutMillis", 10000L);
+        ReflectionTestUtils.setField(relay, "retryBackoffMillis", 100L);
+        ReflectionTestUtils.setField(relay, "maxBackoffMillis", 5000L);
+        ReflectionTestUtils.setField(relay, "forceIntervalMillis", 1000L);
+        relay.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        relay.stop();
+        orderOutbox.close();
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public Object kafkaSend() {
+        return kafkaTemplate.send(SECKILL_ORDER_TOPIC, JSONUtil.toJsonStr(nextOrder()));
+    }
+
+    @Benchmark
+    public void outbox() throws IOException {
+        orderOutbox.append(JSONUtil.toJsonStr(nextOrder()));
+    }
+
+    private VoucherOrder nextOrder() {
+        VoucherOrder voucherOrder = new VoucherOrder();
+        voucherOrder.setId(orderId.incrementAndGet());
+        voucherOrder.setUserId(1010L);
+        voucherOrder.setVoucherId(7L);
+        return voucherOrder;
+    }
+
+    /**
+     * 立即确认的生产者 定期清空已发送的记录 KafkaTemplate每次发送后的close不生效
+     */
+    private static class BenchmarkProducer extends MockProducer<String, String> {
+
+        private long sent;
+
+        BenchmarkProducer() {
+            super(true, new StringSerializer(), new StringSerializer());
+        }
+
+        @Override
+        public synchronized Future<RecordMetadata> send(ProducerRecord<String, String> record, Callback callback) {
+            if (++sent % 100000 == 0) {
+                clear();
+            }
+            return super.send(record, callback);
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public void close(Duration timeout) {
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.jktt.benchmark;
+
+import com.jktt.utils.RedisIdWorker;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RedisIdWorker.nextID 每次INCR 与 号段租用 两种模式对比
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+// jedis-mock的工作线程不是守护线程 缩短fork退出时的等待
+@Fork(value = 1, jvmArgsAppend = "-Djmh.shutdownTimeout=1")
+public class RedisIdWorkerBenchmark {
+
+    // 号段大小 1表示每次INCR
+    @Param({"1", "1000"})
+    public int segmentSize;
+
+    private BenchmarkRedis redis;
+    private RedisIdWorker redisIdWorker;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        redis = BenchmarkRedis.start();
+        redisIdWorker = new RedisIdWorker();
+        ReflectionTestUtils.setField(redisIdWorker, "stringRedisTemplate", redis.template());
+        ReflectionTestUtils.setField(redisIdWorker, "segmentSize", segmentSize);
+        ReflectionTestUtils.setField(redisIdWorker, "prefetchRatio", 0.2);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        redis.stop();
+    }
+
+    @Benchmark
+    public long nextId() {
+        return redisIdWorker.nextID("order");
+    }
+}
@@ -0,0 +1,78 @@
+package com.jktt.benchmark;
+
+import com.jktt.utils.SimpleRedisLock;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.jktt.utils.RedisConstants.SECKILL_ORDER_KEY;
+import static com.jktt.utils.RedisConstants.SECKILL_STOCK_KEY;
+
+/**
+ * SimpleRedisLock加锁/解锁、seckill.lua下单资格校验
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+// jedis-mock的工作线程不是守护线程 缩短fork退出时的等待
+@Fork(value = 1, jvmArgsAppend = "-Djmh.shutdownTimeout=1")
+public class RedisOpsBenchmark {
+
+    private static final Long VOUCHER_ID = 10L;
+
+    private BenchmarkRedis redis;
+    private SimpleRedisLock lock;
+    private DefaultRedisScript<Long> seckillScript;
+    private List<String> seckillKeys;
+    private final AtomicLong userId = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        redis = BenchmarkRedis.start();
+        StringRedisTemplate template = redis.template();
+
+        lock = new SimpleRedisLock("order:benchmark", template);
+
+        seckillScript = new DefaultRedisScript<>();
+        seckillScript.setLocation(new ClassPathResource("seckill.lua"));
+        seckillScript.setResultType(Long.class);
+        seckillKeys = Arrays.asList(SECKILL_STOCK_KEY + VOUCHER_ID, SECKILL_ORDER_KEY + VOUCHER_ID);
+        // 库存足够大 保证每次都走完整的下单路径
+        template.opsForValue().set(SECKILL_STOCK_KEY + VOUCHER_ID, String.valueOf(Integer.MAX_VALUE));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        redis.stop();
+    }
+
+    @Benchmark
+    public boolean lockAcquireRelease() {
+        boolean locked = lock.tryLock(10);
+        if (locked) {
+            lock.unlock();
+        }
+        return locked;
+    }
+
+    @Benchmark
+    public Long seckillAdmit() {
+        // 每次换一个用户 走库存扣减+记录下单的路径
+        return redis.template().execute(seckillScript, seckillKeys, String.valueOf(userId.incrementAndGet()));
+    }
+
+    @Benchmark
+    public Long seckillDuplicate() {
+        // 同一个用户重复下单 走SISMEMBER拒绝的路径
+        return redis.template().execute(seckillScript, seckillKeys, "0");
+    }
+}
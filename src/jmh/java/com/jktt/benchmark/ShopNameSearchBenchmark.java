@@ -0,0 +1,77 @@
+package com.jktt.benchmark;
+
+import com.jktt.utils.ShopNameIndex;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 商铺名称搜索 ShopNameIndex 与 LIKE '%name%' 全表扫描对比
+ * likeScan在内存中模拟分页LIKE查询的工作量：COUNT扫描全部名称 + 扫描到凑满一页为止
+ * 不含磁盘读取、字符集比较和网络开销 是数据库查询耗时的下限
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ShopNameSearchBenchmark {
+
+    private static final int PAGE_SIZE = 10;
+
+    private static final String[] AREAS = {"大关", "拱宸桥", "运河", "西湖", "湖滨", "武林", "滨江", "下沙", "萧山", "良渚"};
+    private static final String[] KINDS = {"茶餐厅", "火锅", "烧烤", "咖啡", "面馆", "酒吧", "KTV", "足疗", "美甲", "轰趴馆", "小龙虾", "海鲜"};
+    private static final String[] SUFFIXES = {"", "店", "旗舰店", "(总店)", "·老字号", "分店"};
+
+    @Param({"10000", "100000"})
+    public int shops;
+
+    // 单字 / 常见词 / 较长的精确词
+    @Param({"茶", "火锅", "拱宸桥海鲜"})
+    public String keyword;
+
+    private final List<String> names = new ArrayList<>();
+    private ShopNameIndex index;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Random random = new Random(42);
+        index = new ShopNameIndex();
+        for (int i = 1; i <= shops; i++) {
+            String name = AREAS[random.nextInt(AREAS.length)]
+                    + KINDS[random.nextInt(KINDS.length)]
+                    + SUFFIXES[random.nextInt(SUFFIXES.length)]
+                    + (random.nextInt(4) == 0 ? String.valueOf(random.nextInt(100)) : "");
+            names.add(name);
+            index.put((long) i, name);
+        }
+    }
+
+    @Benchmark
+    public List<Long> index() {
+        return index.search(keyword, 0, PAGE_SIZE);
+    }
+
+    @Benchmark
+    public List<Long> likeScan() {
+        // 分页插件先执行COUNT 需要扫描全部行
+        int total = 0;
+        for (String name : names) {
+            if (name.contains(keyword)) {
+                total++;
+            }
+        }
+        // 再按主键顺序扫描到凑满一页
+        List<Long> page = new ArrayList<>(PAGE_SIZE);
+        for (int i = 0; i < names.size() && total > 0 && page.size() < PAGE_SIZE; i++) {
+            if (names.get(i).contains(keyword)) {
+                page.add((long) i + 1);
+            }
+        }
+        return page;
+    }
+}
@@ -4,9 +4,11 @@ import org.mybatis.spring.annotation.MapperScan;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.EnableAspectJAutoProxy;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @EnableAspectJAutoProxy(exposeProxy = true) // 暴露代理对象之后就能获取代理对象了（一人一单那块）
 @MapperScan("com.jktt.mapper")
+@EnableScheduling
 @SpringBootApplication
 public class HmDianPingApplication {
 
@@ -2,6 +2,7 @@ package com.jktt.config;
 
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
@@ -10,12 +11,16 @@ import java.util.concurrent.TimeUnit;
 @Configuration
 public class CaffeineConfig {
 
+    // L1过期时间 各节点的L1由CacheInvalidationBus广播失效 可以适当调大
+    @Value("${hmdp.cache.local.expire-seconds:300}")
+    private long localExpireSeconds;
+
     @Bean
     public Cache<String, String> localCache() {
         return Caffeine.newBuilder()
                 .initialCapacity(256)
                 .maximumSize(10_000)
-                .expireAfterWrite(60, TimeUnit.SECONDS)
+                .expireAfterWrite(localExpireSeconds, TimeUnit.SECONDS)
                 .recordStats()
                 .build();
     }
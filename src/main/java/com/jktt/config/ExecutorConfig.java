@@ -0,0 +1,52 @@
+package com.jktt.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+@Configuration
+public class ExecutorConfig {
+
+    /**
+     * 缓存重建线程池 CacheClient和TwoLevelCacheClient共用
+     * 有界队列 队列满时直接拒绝（AbortPolicy） 由CacheRebuildScheduler捕获后继续返回旧数据
+     * 关闭时的排空由CacheRebuildScheduler在容器停止阶段完成
+     */
+    @Bean
+    public ThreadPoolTaskExecutor cacheRebuildExecutor(
+            @Value("${hmdp.cache.rebuild.core-size:4}") int coreSize,
+            @Value("${hmdp.cache.rebuild.max-size:10}") int maxSize,
+            @Value("${hmdp.cache.rebuild.queue-capacity:1000}") int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(coreSize);
+        executor.setMaxPoolSize(maxSize);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setKeepAliveSeconds(60);
+        executor.setThreadNamePrefix("cache-rebuild-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        return executor;
+    }
+
+    /**
+     * 博客推送到粉丝收件箱的线程池 发布博客的请求不等待推送完成
+     * 队列满时由发布博客的线程自己推送 不丢弃
+     */
+    @Bean
+    public ThreadPoolTaskExecutor feedFanoutExecutor(
+            @Value("${hmdp.feed.fanout-threads:4}") int threads,
+            @Value("${hmdp.feed.fanout-queue-capacity:1000}") int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("feed-fanout-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        // 停机时把已提交的推送做完
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(30);
+        return executor;
+    }
+}
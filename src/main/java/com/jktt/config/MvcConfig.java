@@ -1,9 +1,9 @@
 package com.jktt.config;
 
 import com.jktt.utils.LoginInterceptor;
+import com.jktt.utils.LoginSessionManager;
 import com.jktt.utils.RefreshTokenInterceptor;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
@@ -13,7 +13,7 @@ import javax.annotation.Resource;
 public class MvcConfig implements WebMvcConfigurer {
 
     @Resource
-    private StringRedisTemplate stringRedisTemplate;
+    private LoginSessionManager loginSessionManager;
 
     /**
      * 拦截器配置
@@ -32,6 +32,6 @@ public class MvcConfig implements WebMvcConfigurer {
                         "/blog/hot"
                 ).order(1);
 
-        registry.addInterceptor(new RefreshTokenInterceptor(stringRedisTemplate)).addPathPatterns("/**").order(0);
+        registry.addInterceptor(new RefreshTokenInterceptor(loginSessionManager)).addPathPatterns("/**").order(0);
     }
 }
@@ -0,0 +1,32 @@
+package com.jktt.config;
+
+import com.jktt.utils.CacheInvalidationBus;
+import com.jktt.utils.SeckillStockManager;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import static com.jktt.utils.RedisConstants.CACHE_INVALIDATE_CHANNEL;
+import static com.jktt.utils.RedisConstants.SECKILL_SOLD_OUT_CHANNEL;
+
+@Configuration
+public class RedisConfig {
+
+    /**
+     * Redis发布订阅的监听容器 断线后容器会自动重新订阅
+     */
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(
+            RedisConnectionFactory connectionFactory, CacheInvalidationBus cacheInvalidationBus,
+            SeckillStockManager seckillStockManager) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        // 订阅L1失效频道
+        container.addMessageListener(cacheInvalidationBus, new ChannelTopic(CACHE_INVALIDATE_CHANNEL));
+        // 订阅秒杀售罄广播
+        container.addMessageListener(seckillStockManager, new ChannelTopic(SECKILL_SOLD_OUT_CHANNEL));
+        return container;
+    }
+}
@@ -1,9 +1,11 @@
 package com.jktt.controller;
 
 
-import org.springframework.web.bind.annotation.RequestMapping;
+import com.jktt.dto.Result;
+import com.jktt.service.IFollowService;
+import org.springframework.web.bind.annotation.*;
 
-import org.springframework.web.bind.annotation.RestController;
+import javax.annotation.Resource;
 
 /**
  * <p>
@@ -17,4 +19,40 @@ import org.springframework.web.bind.annotation.RestController;
 @RequestMapping("/follow")
 public class FollowController {
 
+    @Resource
+    private IFollowService followService;
+
+    /**
+     * 关注或取关
+     * @param followUserId 被关注的用户id
+     * @param isFollow true: 关注 false: 取关
+     */
+    @PutMapping("/{id}/{isFollow}")
+    public Result follow(@PathVariable("id") Long followUserId, @PathVariable("isFollow") Boolean isFollow) {
+        return followService.follow(followUserId, isFollow);
+    }
+
+    /**
+     * 当前用户是否关注了该用户
+     */
+    @GetMapping("/or/not/{id}")
+    public Result isFollow(@PathVariable("id") Long followUserId) {
+        return followService.isFollow(followUserId);
+    }
+
+    /**
+     * 当前用户和该用户的共同关注
+     */
+    @GetMapping("/common/{id}")
+    public Result followCommons(@PathVariable("id") Long id) {
+        return followService.followCommons(id);
+    }
+
+    /**
+     * 当前用户关注的人
+     */
+    @GetMapping("/list")
+    public Result queryFollowees(@RequestParam(value = "current", defaultValue = "1") Integer current) {
+        return followService.queryFollowees(current);
+    }
 }
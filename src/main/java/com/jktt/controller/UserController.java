@@ -7,6 +7,7 @@ import com.jktt.dto.UserDTO;
 import com.jktt.entity.UserInfo;
 import com.jktt.service.IUserInfoService;
 import com.jktt.service.IUserService;
+import com.jktt.utils.IdBloomFilter;
 import com.jktt.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.web.bind.annotation.*;
@@ -14,6 +15,8 @@ import org.springframework.web.bind.annotation.*;
 import javax.annotation.Resource;
 import javax.servlet.http.HttpSession;
 
+import static com.jktt.utils.RedisConstants.BLOOM_USER_KEY;
+
 /**
  * <p>
  * 前端控制器
@@ -33,6 +36,9 @@ public class UserController {
     @Resource
     private IUserInfoService userInfoService;
 
+    @Resource
+    private IdBloomFilter idBloomFilter;
+
     /**
      * 发送手机验证码
      */
@@ -57,9 +63,8 @@ public class UserController {
      * @return 无
      */
     @PostMapping("/logout")
-    public Result logout(){
-        // TODO 实现登出功能
-        return Result.fail("功能未完成");
+    public Result logout(@RequestHeader(value = "authorization", required = false) String token){
+        return userService.logout(token);
     }
 
     @GetMapping("/me")
@@ -70,8 +75,37 @@ public class UserController {
         return Result.ok(user);
     }
 
+    /**
+     * 今日签到
+     */
+    @PostMapping("/sign")
+    public Result sign(){
+        return userService.sign();
+    }
+
+    /**
+     * 截至今天的连续签到天数
+     */
+    @GetMapping("/sign/count")
+    public Result signCount(){
+        return userService.signCount();
+    }
+
+    /**
+     * 某月的签到总天数
+     * @param month yyyyMM 默认当月
+     */
+    @GetMapping("/sign/month")
+    public Result signMonth(@RequestParam(value = "month", required = false) String month){
+        return userService.signMonth(month);
+    }
+
     @GetMapping("/info/{id}")
     public Result info(@PathVariable("id") Long userId){
+        // 布隆过滤器判定用户不存在 不查数据库
+        if (!idBloomFilter.mightContain(BLOOM_USER_KEY, userId)) {
+            return Result.ok();
+        }
         // 查询详情
         UserInfo info = userInfoService.getById(userId);
         if (info == null) {
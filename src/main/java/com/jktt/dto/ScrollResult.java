@@ -9,4 +9,6 @@ public class ScrollResult {
     private List<?> list;
     private Long minTime;
     private Integer offset;
+    // 游标分页的下一页游标 没有下一页时为null
+    private String cursor;
 }
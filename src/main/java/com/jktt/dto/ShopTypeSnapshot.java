@@ -0,0 +1,29 @@
+package com.jktt.dto;
+
+import com.jktt.entity.ShopType;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * 店铺类型列表的不可变快照
+ * 除了列表本身 还带着序列化好的响应体和ETag 接口直接返回字节
+ */
+@Getter
+public class ShopTypeSnapshot {
+    // 不可修改的列表
+    private final List<ShopType> types;
+    // Result.ok(types)的JSON
+    private final byte[] body;
+    // 响应体的摘要 带引号
+    private final String etag;
+    // 生成快照时Redis中的JSON 用来判断是否有变化
+    private final String source;
+
+    public ShopTypeSnapshot(List<ShopType> types, byte[] body, String etag, String source) {
+        this.types = types;
+        this.body = body;
+        this.etag = etag;
+        this.source = source;
+    }
+}
@@ -0,0 +1,15 @@
+package com.jktt.dto;
+
+import com.jktt.entity.Voucher;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 店铺的优惠券列表 作为一个整体缓存
+ * 秒杀券的库存是缓存时数据库中的值 返回前用Redis中的实时库存覆盖
+ */
+@Data
+public class ShopVoucherList {
+    private List<Voucher> vouchers;
+}
@@ -2,6 +2,10 @@ package com.jktt.mapper;
 
 import com.jktt.entity.Blog;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.time.LocalDateTime;
+import java.util.Map;
 
 /**
  * <p>
@@ -13,4 +17,22 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface BlogMapper extends BaseMapper<Blog> {
 
+    /**
+     * 批量累加点赞数 一条UPDATE ... CASE id WHEN ...
+     * @param deltas 博客id -> 点赞数增量 不能为空
+     * @return 更新行数
+     */
+    int addLikedBatch(@Param("deltas") Map<Long, Long> deltas);
+
+    /**
+     * 登记已写回的点赞数批次 与addLikedBatch在同一个事务中执行
+     * @return 1为首次登记 0为已经写回过
+     */
+    int insertLikeFlush(@Param("batchId") String batchId);
+
+    /**
+     * 删除早于time的批次登记
+     */
+    int deleteLikeFlushBefore(@Param("time") LocalDateTime time);
+
 }
@@ -0,0 +1,23 @@
+package com.jktt.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.jktt.entity.SignMonth;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
+
+/**
+ * <p>
+ *  Mapper 接口
+ * </p>
+ */
+public interface SignMonthMapper extends BaseMapper<SignMonth> {
+
+    /**
+     * 批量写入月度签到位图 已存在的(user_id, month)合并位图 重复归档不会丢签到
+     * @param rows 不能为空
+     * @return 影响行数
+     */
+    int upsertBatch(@Param("rows") List<SignMonth> rows);
+
+}
@@ -1,5 +1,6 @@
 package com.jktt.service;
 
+import com.jktt.dto.Result;
 import com.jktt.entity.Blog;
 import com.baomidou.mybatisplus.extension.service.IService;
 
@@ -13,4 +14,14 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface IBlogService extends IService<Blog> {
 
+    Result queryHotBlog(Integer current);
+
+    Result saveBlog(Blog blog);
+
+    Result likeBlog(Long id);
+
+    Result queryMyBlog(Integer current, String cursor);
+
+    Result queryBlogOfFollow(Long max, Integer offset);
+
 }
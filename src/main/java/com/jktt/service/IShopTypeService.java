@@ -1,5 +1,6 @@
 package com.jktt.service;
 
+import com.jktt.dto.ShopTypeSnapshot;
 import com.jktt.entity.ShopType;
 import com.baomidou.mybatisplus.extension.service.IService;
 
@@ -16,4 +17,6 @@ import java.util.List;
 public interface IShopTypeService extends IService<ShopType> {
 
     List<ShopType> queryTypeList();
+
+    ShopTypeSnapshot queryTypeSnapshot();
 }
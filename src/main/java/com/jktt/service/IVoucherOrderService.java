@@ -4,6 +4,8 @@ import com.jktt.dto.Result;
 import com.jktt.entity.VoucherOrder;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+
 /**
  * <p>
  *  服务类
@@ -16,4 +18,8 @@ public interface IVoucherOrderService extends IService<VoucherOrder> {
     Result seckillVoucher(Long voucherID);
 
     Result createVoucherOrder(Long voucherID, Long userID);
+
+    boolean saveVoucherOrder(VoucherOrder voucherOrder);
+
+    boolean saveVoucherOrderBatch(Long voucherID, List<VoucherOrder> orders);
 }
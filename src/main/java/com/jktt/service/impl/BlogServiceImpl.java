@@ -1,11 +1,32 @@
 package com.jktt.service.impl;
 
+import com.baomidou.mybatisplus.extension.conditions.query.QueryChainWrapper;
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.jktt.dto.Result;
+import com.jktt.dto.ScrollResult;
+import com.jktt.dto.UserDTO;
 import com.jktt.entity.Blog;
 import com.jktt.mapper.BlogMapper;
 import com.jktt.service.IBlogService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.jktt.utils.BlogFeed;
+import com.jktt.utils.BlogHotRanking;
+import com.jktt.utils.BlogLikeStore;
+import com.jktt.utils.IdBloomFilter;
+import com.jktt.utils.ScrollCursor;
+import com.jktt.utils.SystemConstants;
+import com.jktt.utils.UserHolder;
+import com.jktt.utils.UserProfileLoader;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.Resource;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.*;
+
+import static com.jktt.utils.RedisConstants.BLOOM_BLOG_KEY;
+
 /**
  * <p>
  *  服务实现类
@@ -17,4 +38,158 @@ import org.springframework.stereotype.Service;
 @Service
 public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IBlogService {
 
+    @Resource
+    private UserProfileLoader userProfileLoader;
+
+    @Resource
+    private BlogHotRanking blogHotRanking;
+
+    @Resource
+    private BlogLikeStore blogLikeStore;
+
+    @Resource
+    private BlogFeed blogFeed;
+
+    @Resource
+    private IdBloomFilter idBloomFilter;
+
+    @Override
+    public Result queryHotBlog(Integer current) {
+        current = Math.max(current == null ? 1 : current, 1);
+        // 1.从热榜ZSET取出这一页的博客id
+        List<Long> ids = blogHotRanking.page(current, SystemConstants.MAX_PAGE_SIZE);
+        List<Blog> records;
+        if (ids == null) {
+            // 热榜还没建好或超出保留范围 回退到数据库按点赞数分页
+            Page<Blog> page = query()
+                    .orderByDesc("liked")
+                    .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE, false));
+            records = page.getRecords();
+        } else if (ids.isEmpty()) {
+            return Result.ok(Collections.emptyList());
+        } else {
+            // 2.按主键批量查询博客 再按热榜顺序排列
+            records = listByIdsInOrder(ids);
+        }
+        // 批量查询作者 一页只查一次
+        userProfileLoader.fill(records, Blog::getUserId,
+                (blog, user) -> blog.setName(user.getNickName()).setIcon(user.getIcon()));
+        // 当前用户是否点过赞（热榜不需要登录）
+        UserDTO user = UserHolder.getUser();
+        blogLikeStore.fillLikes(records, user == null ? null : user.getId());
+        return Result.ok(records);
+    }
+
+    @Override
+    public Result saveBlog(Blog blog) {
+        // 获取登录用户
+        UserDTO user = UserHolder.getUser();
+        blog.setUserId(user.getId());
+        // 保存探店博文
+        save(blog);
+        // 登记到布隆过滤器
+        idBloomFilter.add(BLOOM_BLOG_KEY, blog.getId());
+        // 加入热榜
+        blogHotRanking.add(blog.getId(), 0, blog.getCreateTime());
+        // 推送给粉丝
+        blogFeed.publish(user.getId(), blog.getId(), System.currentTimeMillis());
+        // 返回id
+        return Result.ok(blog.getId());
+    }
+
+    @Override
+    public Result likeBlog(Long id) {
+        // 不存在的博客不记录点赞 否则每个随机id都会留下点赞集合和待写回的增量
+        if (!idBloomFilter.mightContain(BLOOM_BLOG_KEY, id)) {
+            return Result.fail("博客不存在");
+        }
+        // 点赞或取消点赞 点赞数的变化由定时任务批量写回数据库
+        Long userId = UserHolder.getUser().getId();
+        long delta = blogLikeStore.toggle(id, userId);
+        blogHotRanking.incrLiked(id, (int) delta);
+        return Result.ok();
+    }
+
+    @Override
+    public Result queryMyBlog(Integer current, String cursor) {
+        // 获取登录用户
+        UserDTO user = UserHolder.getUser();
+        if (cursor != null) {
+            return scrollMyBlog(user.getId(), cursor);
+        }
+        // 根据用户查询 只返回当前页 不需要COUNT
+        Page<Blog> page = query()
+                .eq("user_id", user.getId()).page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE, false));
+        // 获取当前页数据
+        List<Blog> records = page.getRecords();
+        blogLikeStore.fillLikes(records, user.getId());
+        return Result.ok(records);
+    }
+
+    /**
+     * 按(create_time, id)倒序的游标分页 游标为上一页最后一条的发布时间和id
+     */
+    private Result scrollMyBlog(Long userId, String cursor) {
+        long[] after = ScrollCursor.decode(cursor, 2);
+        if (after == null) {
+            return Result.fail("分页游标无效");
+        }
+        int size = SystemConstants.MAX_PAGE_SIZE;
+        QueryChainWrapper<Blog> query = query().eq("user_id", userId);
+        if (after.length > 0) {
+            LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochMilli(after[0]), ZoneId.systemDefault());
+            long id = after[1];
+            query.and(w -> w.lt("create_time", time).or(o -> o.eq("create_time", time).lt("id", id)));
+        }
+        // 多取一条判断是否还有下一页
+        List<Blog> blogs = query.orderByDesc("create_time", "id").last("limit " + (size + 1)).list();
+        ScrollResult r = new ScrollResult();
+        if (blogs.size() > size) {
+            blogs = blogs.subList(0, size);
+            Blog last = blogs.get(size - 1);
+            r.setCursor(ScrollCursor.encode(
+                    last.getCreateTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli(), last.getId()));
+        }
+        blogLikeStore.fillLikes(blogs, userId);
+        r.setList(blogs);
+        return Result.ok(r);
+    }
+
+
+    @Override
+    public Result queryBlogOfFollow(Long max, Integer offset) {
+        // 1.查询收件箱和关注的大V发件箱
+        Long userId = UserHolder.getUser().getId();
+        BlogFeed.FeedPage page = blogFeed.scroll(userId, max, offset, SystemConstants.DEFAULT_PAGE_SIZE);
+        ScrollResult r = new ScrollResult();
+        r.setMinTime(page.getMinTime());
+        r.setOffset(page.getOffset());
+        if (page.getBlogIds().isEmpty()) {
+            r.setList(Collections.emptyList());
+            return Result.ok(r);
+        }
+        // 2.按id批量查询博客 保持时间倒序
+        List<Blog> blogs = listByIdsInOrder(page.getBlogIds());
+        userProfileLoader.fill(blogs, Blog::getUserId,
+                (blog, user) -> blog.setName(user.getNickName()).setIcon(user.getIcon()));
+        blogLikeStore.fillLikes(blogs, userId);
+        r.setList(blogs);
+        return Result.ok(r);
+    }
+
+    /**
+     * 按主键批量查询 结果按ids的顺序排列 已删除的博客跳过
+     */
+    private List<Blog> listByIdsInOrder(List<Long> ids) {
+        Map<Long, Blog> blogs = new HashMap<>(ids.size() * 2);
+        listByIds(ids).forEach(blog -> blogs.put(blog.getId(), blog));
+        List<Blog> records = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            Blog blog = blogs.get(id);
+            if (blog != null) {
+                records.add(blog);
+            }
+        }
+        return records;
+    }
 }
@@ -1,11 +1,25 @@
 package com.jktt.service.impl;
 
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.jktt.dto.Result;
+import com.jktt.dto.UserDTO;
 import com.jktt.entity.Follow;
 import com.jktt.mapper.FollowMapper;
 import com.jktt.service.IFollowService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.jktt.utils.FollowGraph;
+import com.jktt.utils.SystemConstants;
+import com.jktt.utils.UserHolder;
+import com.jktt.utils.UserProfileLoader;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
 /**
  * <p>
  *  服务实现类
@@ -17,4 +31,80 @@ import org.springframework.stereotype.Service;
 @Service
 public class FollowServiceImpl extends ServiceImpl<FollowMapper, Follow> implements IFollowService {
 
+    @Resource
+    private FollowGraph followGraph;
+
+    @Resource
+    private UserProfileLoader userProfileLoader;
+
+    @Override
+    public Result follow(Long followUserId, Boolean isFollow) {
+        // 1.获取登录用户
+        Long userId = UserHolder.getUser().getId();
+        if (userId.equals(followUserId)) {
+            return Result.fail("不能关注自己");
+        }
+        // 2.判断是关注还是取关
+        if (Boolean.TRUE.equals(isFollow)) {
+            // 3.关注 新增数据
+            Follow follow = new Follow().setUserId(userId).setFollowUserId(followUserId);
+            try {
+                save(follow);
+            } catch (DuplicateKeyException e) {
+                // 已经关注过了 唯一索引保证不会重复
+                return Result.ok();
+            }
+            followGraph.add(userId, followUserId);
+        } else {
+            // 4.取关 删除数据
+            remove(new QueryWrapper<Follow>().eq("user_id", userId).eq("follow_user_id", followUserId));
+            followGraph.remove(userId, followUserId);
+        }
+        return Result.ok();
+    }
+
+    @Override
+    public Result isFollow(Long followUserId) {
+        Long userId = UserHolder.getUser().getId();
+        return Result.ok(followGraph.isFollowing(userId, followUserId));
+    }
+
+    @Override
+    public Result followCommons(Long id) {
+        // 求两个关注集合的交集
+        Long userId = UserHolder.getUser().getId();
+        List<Long> ids = followGraph.common(userId, id);
+        if (ids.isEmpty()) {
+            return Result.ok(Collections.emptyList());
+        }
+        Collections.sort(ids);
+        return Result.ok(toUsers(ids));
+    }
+
+    @Override
+    public Result queryFollowees(Integer current) {
+        Long userId = UserHolder.getUser().getId();
+        List<Long> ids = followGraph.followees(userId);
+        int from = (current - 1) * SystemConstants.MAX_PAGE_SIZE;
+        if (from < 0 || from >= ids.size()) {
+            return Result.ok(Collections.emptyList(), (long) ids.size());
+        }
+        List<Long> page = ids.subList(from, Math.min(from + SystemConstants.MAX_PAGE_SIZE, ids.size()));
+        return Result.ok(toUsers(page), (long) ids.size());
+    }
+
+    /**
+     * 批量查询用户信息 保持ids的顺序
+     */
+    private List<UserDTO> toUsers(List<Long> ids) {
+        Map<Long, UserDTO> users = userProfileLoader.loadAll(ids);
+        List<UserDTO> result = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            UserDTO user = users.get(id);
+            if (user != null) {
+                result.add(user);
+            }
+        }
+        return result;
+    }
 }
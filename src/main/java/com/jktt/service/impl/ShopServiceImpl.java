@@ -1,16 +1,28 @@
 package com.jktt.service.impl;
 
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.util.StrUtil;
+import com.baomidou.mybatisplus.extension.conditions.query.QueryChainWrapper;
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.jktt.dto.Result;
+import com.jktt.dto.ScrollResult;
 import com.jktt.entity.Shop;
 import com.jktt.mapper.ShopMapper;
 import com.jktt.service.IShopService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.jktt.utils.AfterCommit;
+import com.jktt.utils.IdBloomFilter;
+import com.jktt.utils.ScrollCursor;
+import com.jktt.utils.ShopGeoIndex;
+import com.jktt.utils.ShopNameIndex;
+import com.jktt.utils.SystemConstants;
 import com.jktt.utils.TwoLevelCacheClient;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.Resource;
 
+import java.util.*;
 import java.util.concurrent.TimeUnit;
 
 import static com.jktt.utils.RedisConstants.*;
@@ -26,9 +38,28 @@ import static com.jktt.utils.RedisConstants.*;
 @Service
 public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IShopService {
 
+    // 按名称查询的游标第一个键是分页方式 第一页决定后一直沿用到最后一页
+    // 数据库：(0, id) 名称索引：(1, 匹配类型, 位置, 名称长度, id)
+    private static final long NAME_CURSOR_DB = 0L;
+    private static final long NAME_CURSOR_INDEX = 1L;
+    // 按类型查询的游标同样以分页方式开头 数据库：(0, id) 按距离：(1, 下一页的起始位置)
+    private static final long TYPE_CURSOR_DB = 0L;
+    private static final long TYPE_CURSOR_GEO = 1L;
+    // 按距离和按名称索引分页时 每一页都要从第一条开始取到本页 最多翻这么多页
+    private static final int MAX_OFFSET_PAGES = 100;
+
     @Resource
     private TwoLevelCacheClient twoLevelCacheClient;
 
+    @Resource
+    private IdBloomFilter idBloomFilter;
+
+    @Resource
+    private ShopGeoIndex shopGeoIndex;
+
+    @Resource
+    private ShopNameIndex shopNameIndex;
+
     @Override
     public Result queryById(Long id) {
         Shop shop = twoLevelCacheClient
@@ -42,6 +73,21 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         return Result.ok(shop);
     }
 
+    @Override
+    @Transactional
+    public Result saveShop(Shop shop) {
+        // 1.写入数据库
+        save(shop);
+        // 2.事务提交后登记到布隆过滤器、写入GEO索引和名称索引 回滚时不会留下不存在的商铺
+        AfterCommit.run(() -> {
+            idBloomFilter.add(BLOOM_SHOP_KEY, shop.getId());
+            shopGeoIndex.save(shop, null);
+            shopNameIndex.put(shop.getId(), shop.getName());
+        });
+        // 3.返回店铺id
+        return Result.ok(shop.getId());
+    }
+
     @Override
     @Transactional //开启事务
     public Result update(Shop shop) {
@@ -50,11 +96,212 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         if (id == null) {
             return Result.fail("商铺id不能为空");
         }
+        Shop old = getById(id);
+        if (old == null) {
+            return Result.fail("店铺不存在");
+        }
         // 2.更新数据库
         updateById(shop);
 
         // 3.删除缓存
         twoLevelCacheClient.invalidate(CACHE_SHOP_KEY + id);
+
+        // 4.同步GEO索引 只传了部分字段时沿用原值 事务提交后再写 回滚时不会留下未提交的类型和坐标
+        Long typeId = shop.getTypeId() != null ? shop.getTypeId() : old.getTypeId();
+        Double x = shop.getX() != null ? shop.getX() : old.getX();
+        Double y = shop.getY() != null ? shop.getY() : old.getY();
+        if (!Objects.equals(typeId, old.getTypeId()) || !Objects.equals(x, old.getX()) || !Objects.equals(y, old.getY())) {
+            Shop geo = new Shop().setId(id).setTypeId(typeId).setX(x).setY(y);
+            AfterCommit.run(() -> shopGeoIndex.save(geo, old.getTypeId()));
+        }
+
+        // 5.同步名称索引 事务提交后再更新 回滚时索引不会变成未提交的名称
+        if (shop.getName() != null) {
+            AfterCommit.run(() -> shopNameIndex.put(id, shop.getName()));
+        }
         return Result.ok();
     }
+
+    @Override
+    public Result queryShopByType(Integer typeId, Integer current, Double x, Double y, String cursor) {
+        // 页码从1开始 非法的页码按第一页处理
+        current = Math.max(current == null ? 1 : current, 1);
+        // 1.不需要按距离排序 直接查数据库
+        if (x == null || y == null) {
+            if (cursor != null) {
+                long[] after = ScrollCursor.decode(cursor);
+                if (after == null || after.length != 0 && (after.length != 2 || after[0] != TYPE_CURSOR_DB)) {
+                    return Result.fail("分页游标无效");
+                }
+                return Result.ok(scrollById(query().eq("type_id", typeId),
+                        after.length > 0 ? after[1] : null, SystemConstants.DEFAULT_PAGE_SIZE, TYPE_CURSOR_DB));
+            }
+            // 只返回当前页 不需要COUNT
+            Page<Shop> page = query()
+                    .eq("type_id", typeId)
+                    .page(new Page<>(current, SystemConstants.DEFAULT_PAGE_SIZE, false));
+            return Result.ok(page.getRecords());
+        }
+
+        // 2.按距离分页查询商铺id GEORADIUS无法从某个位置继续 游标中存的是下一页的起始位置
+        int size = SystemConstants.DEFAULT_PAGE_SIZE;
+        long maxFrom = (long) (MAX_OFFSET_PAGES - 1) * size;
+        long offset = (long) (current - 1) * size;
+        if (cursor != null) {
+            long[] after = ScrollCursor.decode(cursor);
+            if (after == null || after.length != 0 && (after.length != 2 || after[0] != TYPE_CURSOR_GEO
+                    || after[1] < 0 || after[1] > maxFrom)) {
+                return Result.fail("分页游标无效");
+            }
+            offset = after.length == 0 ? 0 : after[1];
+        } else if (offset > maxFrom) {
+            return Result.ok(Collections.emptyList());
+        }
+        int from = (int) offset;
+        // 游标分页多取一条判断是否还有下一页
+        LinkedHashMap<Long, Double> distances = shopGeoIndex.nearby(
+                typeId.longValue(), x, y, from, cursor == null ? size : size + 1);
+        boolean hasMore = distances.size() > size;
+        List<Long> ids = new ArrayList<>(distances.keySet());
+        if (hasMore) {
+            ids = ids.subList(0, size);
+        }
+
+        // 3.通过二级缓存批量查询商铺 缺失的一次查库
+        Map<Long, Shop> shops = ids.isEmpty() ? Collections.emptyMap() : twoLevelCacheClient.queryBatchWithLogicalExpire(
+                CACHE_SHOP_KEY, ids, Shop.class, this::getById, this::mapByIds, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+
+        // 4.按距离顺序组装 缓存中的对象是共享的 复制后再设置距离
+        List<Shop> result = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            Shop shop = shops.get(id);
+            if (shop == null) {
+                continue;
+            }
+            Shop copy = BeanUtil.copyProperties(shop, Shop.class);
+            copy.setDistance(distances.get(id));
+            result.add(copy);
+        }
+        if (cursor == null) {
+            return Result.ok(result);
+        }
+        ScrollResult r = new ScrollResult();
+        r.setList(result);
+        r.setCursor(hasMore && from + size <= maxFrom ? ScrollCursor.encode(TYPE_CURSOR_GEO, from + size) : null);
+        return Result.ok(r);
+    }
+
+    @Override
+    public Result queryShopByName(String name, Integer current, String cursor) {
+        // 页码从1开始 非法的页码按第一页处理
+        current = Math.max(current == null ? 1 : current, 1);
+        if (cursor != null) {
+            return scrollShopByName(name, cursor);
+        }
+        // 1.没有关键字或索引还没加载完 查数据库
+        if (StrUtil.isBlank(name) || !shopNameIndex.isReady()) {
+            Page<Shop> page = query()
+                    .like(StrUtil.isNotBlank(name), "name", name)
+                    .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE, false));
+            return Result.ok(page.getRecords());
+        }
+
+        // 2.从名称索引分页查询排好序的商铺id
+        if (current > MAX_OFFSET_PAGES) {
+            return Result.ok(Collections.emptyList());
+        }
+        int from = (current - 1) * SystemConstants.MAX_PAGE_SIZE;
+        List<Long> ids = shopNameIndex.search(name, from, SystemConstants.MAX_PAGE_SIZE);
+        return Result.ok(listInOrder(ids));
+    }
+
+    /**
+     * 按名称游标分页 两种方式的排序不同 中途换方式会重复或漏掉商铺
+     * 第一页按当前状态选择 之后按游标中记录的方式继续
+     */
+    private Result scrollShopByName(String name, String cursor) {
+        long[] keys = ScrollCursor.decode(cursor);
+        if (keys == null) {
+            return Result.fail("分页游标无效");
+        }
+        boolean useIndex = keys.length == 0
+                ? StrUtil.isNotBlank(name) && shopNameIndex.isReady()
+                : keys[0] == NAME_CURSOR_INDEX;
+        if (!useIndex) {
+            // 1.数据库 id升序
+            if (keys.length != 0 && (keys.length != 2 || keys[0] != NAME_CURSOR_DB)) {
+                return Result.fail("分页游标无效");
+            }
+            return Result.ok(scrollById(query().like(StrUtil.isNotBlank(name), "name", name),
+                    keys.length > 0 ? keys[1] : null, SystemConstants.MAX_PAGE_SIZE, NAME_CURSOR_DB));
+        }
+        // 2.名称索引 游标为上一页最后一条的排序键
+        if (keys.length != 0 && keys.length != 5) {
+            return Result.fail("分页游标无效");
+        }
+        if (!shopNameIndex.isReady()) {
+            // 本节点刚启动 索引还没加载完 不能换成数据库的顺序继续
+            return Result.fail("商铺索引加载中，请稍后重试");
+        }
+        long[] after = keys.length == 0 ? null : Arrays.copyOfRange(keys, 1, keys.length);
+        ShopNameIndex.NamePage page = shopNameIndex.scroll(name, after, SystemConstants.MAX_PAGE_SIZE);
+        ScrollResult r = new ScrollResult();
+        r.setList(listInOrder(page.getIds()));
+        r.setCursor(page.getNext() == null ? null : ScrollCursor.encode(prepend(NAME_CURSOR_INDEX, page.getNext())));
+        return Result.ok(r);
+    }
+
+    /**
+     * 按id升序的游标分页 WHERE id > 游标 LIMIT size+1 多取的一条只用来判断是否还有下一页
+     * @param afterId 上一页最后一条的id 第一页为null
+     * @param cursorPrefix 下一页游标中放在id之前的键
+     */
+    private ScrollResult scrollById(QueryChainWrapper<Shop> query, Long afterId, int size, long... cursorPrefix) {
+        List<Shop> shops = query
+                .gt(afterId != null, "id", afterId)
+                .orderByAsc("id")
+                .last("limit " + (size + 1))
+                .list();
+        ScrollResult r = new ScrollResult();
+        if (shops.size() > size) {
+            shops = shops.subList(0, size);
+            long[] keys = Arrays.copyOf(cursorPrefix, cursorPrefix.length + 1);
+            keys[cursorPrefix.length] = shops.get(size - 1).getId();
+            r.setCursor(ScrollCursor.encode(keys));
+        }
+        r.setList(shops);
+        return r;
+    }
+
+    private static long[] prepend(long first, long[] rest) {
+        long[] keys = new long[rest.length + 1];
+        keys[0] = first;
+        System.arraycopy(rest, 0, keys, 1, rest.length);
+        return keys;
+    }
+
+    /**
+     * 通过二级缓存批量查询商铺 按ids的顺序返回
+     */
+    private List<Shop> listInOrder(List<Long> ids) {
+        if (ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Map<Long, Shop> shops = twoLevelCacheClient.queryBatchWithLogicalExpire(
+                CACHE_SHOP_KEY, ids, Shop.class, this::getById, this::mapByIds, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        List<Shop> result = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            Shop shop = shops.get(id);
+            if (shop != null) {
+                result.add(shop);
+            }
+        }
+        return result;
+    }
+
+    private Map<Long, Shop> mapByIds(List<Long> ids) {
+        Map<Long, Shop> shops = new HashMap<>(ids.size() * 2);
+        listByIds(ids).forEach(shop -> shops.put(shop.getId(), shop));
+        return shops;
+    }
 }
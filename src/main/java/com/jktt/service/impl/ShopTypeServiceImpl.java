@@ -1,46 +1,106 @@
 package com.jktt.service.impl;
 
 import cn.hutool.core.util.StrUtil;
+import cn.hutool.crypto.digest.DigestUtil;
 import cn.hutool.json.JSONUtil;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jktt.dto.Result;
+import com.jktt.dto.ShopTypeSnapshot;
 import com.jktt.entity.ShopType;
 import com.jktt.mapper.ShopTypeMapper;
 import com.jktt.service.IShopTypeService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.jktt.utils.RedisConstants.CACHE_SHOP_TYPE_KEY;
+import static com.jktt.utils.RedisConstants.CACHE_SHOP_TYPE_TTL;
 
 /**
  * <p>
  *  服务实现类
  * </p>
  *
+ * 店铺类型很少变化 各节点在内存中保存一份不可变快照 接口不再访问Redis
+ * 定时比较Redis中的JSON 有变化时重建快照；Redis中的缓存过期或被删除后由先发现的节点从数据库重新加载
+ *
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> implements IShopTypeService {
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private ObjectMapper objectMapper;
+
+    private volatile ShopTypeSnapshot snapshot;
+
+    @PostConstruct
+    public void init() {
+        // 启动时预热 失败时第一次请求再加载
+        sync();
+    }
+
     @Override
     public List<ShopType> queryTypeList() {
-        List<ShopType> typeList;
-        String key = "cache:shopType";
+        return queryTypeSnapshot().getTypes();
+    }
+
+    @Override
+    public ShopTypeSnapshot queryTypeSnapshot() {
+        ShopTypeSnapshot current = snapshot;
+        return current != null ? current : load();
+    }
+
+    /**
+     * 检查Redis中的类型列表是否变化
+     */
+    @Scheduled(fixedDelayString = "${hmdp.shop-type.sync-interval-ms:10000}")
+    public void sync() {
+        try {
+            load();
+        } catch (Exception e) {
+            log.warn("店铺类型同步失败 继续使用旧数据：{}", e.getMessage());
+        }
+    }
+
+    private synchronized ShopTypeSnapshot load() {
         // 1.查缓存
-        String shopTypeList = stringRedisTemplate.opsForValue().get(key);
-        // 2.有-直接返回
-        if(StrUtil.isNotBlank(shopTypeList)){
-            typeList = JSONUtil.toList(shopTypeList,ShopType.class);
-            return typeList;
+        String json = stringRedisTemplate.opsForValue().get(CACHE_SHOP_TYPE_KEY);
+        // 2.没有-查数据库 存入缓存
+        if (StrUtil.isBlank(json)) {
+            List<ShopType> typeList = query().orderByAsc("sort").list();
+            json = JSONUtil.toJsonStr(typeList);
+            stringRedisTemplate.opsForValue().set(CACHE_SHOP_TYPE_KEY, json, CACHE_SHOP_TYPE_TTL, TimeUnit.MINUTES);
+        }
+        // 3.和当前快照相同 不用重建
+        ShopTypeSnapshot current = snapshot;
+        if (current != null && json.equals(current.getSource())) {
+            return current;
+        }
+        // 4.生成新快照 响应体和ETag只计算一次
+        List<ShopType> types = Collections.unmodifiableList(JSONUtil.toList(json, ShopType.class));
+        byte[] body;
+        try {
+            body = objectMapper.writeValueAsBytes(Result.ok(types));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("店铺类型序列化失败", e);
         }
-        // 3.没有-查数据库
-        typeList = query().orderByAsc("sort").list();
-        // 4.存入缓存
-        stringRedisTemplate.opsForValue().set(key,JSONUtil.toJsonStr(typeList));
-        // 5.返回
-        return typeList;
+        String etag = "\"" + DigestUtil.md5Hex(body) + "\"";
+        snapshot = new ShopTypeSnapshot(types, body, etag, json);
+        log.info("店铺类型快照已更新 共{}个 ETag={}", types.size(), etag);
+        return snapshot;
     }
 }
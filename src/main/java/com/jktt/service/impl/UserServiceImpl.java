@@ -1,8 +1,8 @@
 package com.jktt.service.impl;
 
 import cn.hutool.core.bean.BeanUtil;
-import cn.hutool.core.lang.UUID;
 import cn.hutool.core.util.RandomUtil;
+import cn.hutool.core.util.StrUtil;
 import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.jktt.dto.LoginFormDTO;
@@ -11,7 +11,13 @@ import com.jktt.dto.UserDTO;
 import com.jktt.entity.User;
 import com.jktt.mapper.UserMapper;
 import com.jktt.service.IUserService;
+import com.jktt.utils.AfterCommit;
+import com.jktt.utils.IdBloomFilter;
+import com.jktt.utils.LoginSessionManager;
 import com.jktt.utils.RegexUtils;
+import com.jktt.utils.SignStore;
+import com.jktt.utils.UserHolder;
+import com.jktt.utils.UserProfileLoader;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
@@ -19,8 +25,9 @@ import org.springframework.stereotype.Service;
 import javax.annotation.Resource;
 import javax.servlet.http.HttpSession;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.concurrent.TimeUnit;
 
 import static com.jktt.utils.RedisConstants.*;
@@ -38,9 +45,34 @@ import static com.jktt.utils.SystemConstants.USER_NICK_NAME_PREFIX;
 @Slf4j
 public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IUserService {
 
+    private static final DateTimeFormatter SIGN_MONTH_FORMAT = DateTimeFormatter.ofPattern("yyyyMM");
+
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private IdBloomFilter idBloomFilter;
+
+    @Resource
+    private LoginSessionManager loginSessionManager;
+
+    @Resource
+    private SignStore signStore;
+
+    @Resource
+    private UserProfileLoader userProfileLoader;
+
+    /**
+     * 修改用户 提交后删除作者信息缓存cache:user:{id}
+     */
+    @Override
+    public boolean updateById(User user) {
+        boolean updated = super.updateById(user);
+        if (updated) {
+            AfterCommit.run(() -> userProfileLoader.invalidate(user.getId()));
+        }
+        return updated;
+    }
 
     @Override
     public Result sendCode(String phone, HttpSession session) {
@@ -91,25 +123,49 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
             user = createUserWithPhone(phone);
         }
 
-        // 7.存在 保存到Redis
-        // 7.1.随机生成token 作为登录令牌
-        String token = UUID.randomUUID().toString(true);
-        // 7.2.将user对象转为Hash存储
+        // 7.存在 保存会话到Redis
         UserDTO userDTO = BeanUtil.copyProperties(user, UserDTO.class);
-        Map<String, Object> userMap = BeanUtil.beanToMap(userDTO);
-        Map<String, String> stringMap = new HashMap<>();
-        userMap.forEach((key, value) -> stringMap.put(key, value.toString()));
-
-        // 7.3.存储
-        String tokenKey = LOGIN_USER_KEY + token;
-        stringRedisTemplate.opsForHash().putAll(tokenKey,stringMap);
-        // 7.4设置token有效期
-        stringRedisTemplate.expire(tokenKey, LOGIN_USER_TTL, TimeUnit.MINUTES);
+        String token = loginSessionManager.create(userDTO);
 
         // 8.返回token
         return Result.ok(token);
     }
 
+    @Override
+    public Result logout(String token) {
+        if (StrUtil.isNotBlank(token)) {
+            // 删除会话 各节点的本地会话缓存同时失效
+            loginSessionManager.remove(token);
+        }
+        return Result.ok();
+    }
+
+    @Override
+    public Result sign() {
+        Long userId = UserHolder.getUser().getId();
+        // 当月bitmap中把今天对应的位置1
+        signStore.sign(userId);
+        return Result.ok();
+    }
+
+    @Override
+    public Result signCount() {
+        Long userId = UserHolder.getUser().getId();
+        return Result.ok(signStore.streak(userId));
+    }
+
+    @Override
+    public Result signMonth(String month) {
+        YearMonth yearMonth;
+        try {
+            yearMonth = StrUtil.isBlank(month) ? YearMonth.now() : YearMonth.parse(month, SIGN_MONTH_FORMAT);
+        } catch (DateTimeParseException e) {
+            return Result.fail("月份格式错误");
+        }
+        Long userId = UserHolder.getUser().getId();
+        return Result.ok(signStore.monthCount(userId, yearMonth));
+    }
+
     private User createUserWithPhone(String phone) {
         // 1.创建用户
         User user = new User();
@@ -117,6 +173,8 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
         user.setNickName(USER_NICK_NAME_PREFIX + phone + "_" + RandomUtil.randomString(4));
         // 2.保存用户
         save(user);
+        // 3.登记到布隆过滤器
+        idBloomFilter.add(BLOOM_USER_KEY, user.getId());
         return user;
     }
 }
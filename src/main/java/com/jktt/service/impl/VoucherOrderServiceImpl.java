@@ -5,19 +5,33 @@ import com.jktt.entity.VoucherOrder;
 import com.jktt.mapper.VoucherOrderMapper;
 import com.jktt.service.IVoucherOrderService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.jktt.utils.IdBloomFilter;
+import com.jktt.utils.OrderDeadLetterQueue;
+import com.jktt.utils.OrderOutbox;
 import com.jktt.utils.RedisIdWorker;
+import com.jktt.utils.SeckillSaleScheduler;
+import com.jktt.utils.SeckillStockManager;
 import com.jktt.utils.UserHolder;
 import cn.hutool.json.JSONUtil;
+import org.springframework.aop.framework.AopContext;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.kafka.annotation.KafkaListener;
-import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.Resource;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static com.jktt.utils.RedisConstants.BLOOM_VOUCHER_KEY;
+import static com.jktt.utils.SystemConstants.SECKILL_ORDER_GROUP;
+import static com.jktt.utils.SystemConstants.SECKILL_ORDER_TOPIC;
 
 /**
  * <p>
@@ -29,7 +43,6 @@ import java.util.Collections;
  */
 @Service
 public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, VoucherOrder> implements IVoucherOrderService {
-    private static final String ORDER_TOPIC = "voucher-order-topic";
     @Resource
     private SeckillVoucherServiceImpl seckillVoucherService;
     @Resource
@@ -38,7 +51,19 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     private StringRedisTemplate stringRedisTemplate;
 
     @Resource
-    private KafkaTemplate<String, String> kafkaTemplate;
+    private OrderOutbox orderOutbox;
+
+    @Resource
+    private OrderDeadLetterQueue orderDeadLetterQueue;
+
+    @Resource
+    private IdBloomFilter idBloomFilter;
+
+    @Resource
+    private SeckillStockManager seckillStockManager;
+
+    @Resource
+    private SeckillSaleScheduler seckillSaleScheduler;
 
     // Lua脚本
     private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
@@ -48,11 +73,67 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         SECKILL_SCRIPT.setResultType(Long.class);
     }
 
-    // 完成库存扣减和订单生成
-    @KafkaListener(topics = ORDER_TOPIC, groupId = "voucher-order-group")
-    @Transactional
+    // 完成库存扣减和订单生成（逐条消费 关闭批量模式时启用）
+    @KafkaListener(topics = SECKILL_ORDER_TOPIC, groupId = SECKILL_ORDER_GROUP,
+            autoStartup = "#{!${hmdp.seckill.order-consumer.batch:true}}")
     public void handleVoucherOrder(String msg) {
         VoucherOrder voucherOrder = JSONUtil.toBean(msg, VoucherOrder.class);
+        saveOrDeadLetter((IVoucherOrderService) AopContext.currentProxy(), voucherOrder);
+    }
+
+    // 批量消费：一次poll的消息按优惠券分组 每组一次扣减库存 + 一次多行插入
+    @KafkaListener(topics = SECKILL_ORDER_TOPIC, groupId = SECKILL_ORDER_GROUP,
+            containerFactory = "batchKafkaListenerContainerFactory",
+            autoStartup = "${hmdp.seckill.order-consumer.batch:true}")
+    public void handleVoucherOrderBatch(List<String> msgs) {
+        // 1.解析并按voucherId分组 保持消息原有顺序
+        Map<Long, List<VoucherOrder>> ordersByVoucher = msgs.stream()
+                .map(msg -> JSONUtil.toBean(msg, VoucherOrder.class))
+                .collect(Collectors.groupingBy(VoucherOrder::getVoucherId, LinkedHashMap::new, Collectors.toList()));
+
+        // 事务方法需要通过代理对象调用
+        IVoucherOrderService proxy = (IVoucherOrderService) AopContext.currentProxy();
+        ordersByVoucher.forEach((voucherId, orders) -> {
+            // 2.整组在一个事务内扣减库存并批量插入
+            try {
+                if (proxy.saveVoucherOrderBatch(voucherId, orders)) {
+                    return;
+                }
+            } catch (Exception e) {
+                log.warn("批量创建订单失败，改为逐单处理，voucherId=" + voucherId + "，原因：" + e.getMessage());
+            }
+            // 3.整组失败（库存不足以覆盖整组、重复消息导致主键冲突等） 逐单兜底 每单独立事务
+            for (VoucherOrder voucherOrder : orders) {
+                saveOrDeadLetter(proxy, voucherOrder);
+            }
+        });
+    }
+
+    /**
+     * 逐单创建订单 无法入库的订单转入死信队列 不再丢弃
+     */
+    private void saveOrDeadLetter(IVoucherOrderService proxy, VoucherOrder voucherOrder) {
+        String reason;
+        try {
+            if (proxy.saveVoucherOrder(voucherOrder)) {
+                return;
+            }
+            // Redis扣减成功但数据库库存不足 两边库存不一致 需要人工核对
+            reason = "库存不足";
+        } catch (DuplicateKeyException e) {
+            // 发件箱至少投递一次 重发的订单已经入库 或者同一用户重复下单（uk_voucher_user）
+            log.debug("重复的订单，orderId=" + voucherOrder.getId());
+            return;
+        } catch (Exception e) {
+            log.error("创建订单失败，orderId=" + voucherOrder.getId(), e);
+            reason = e.getClass().getSimpleName() + ": " + e.getMessage();
+        }
+        orderDeadLetterQueue.publish(JSONUtil.toJsonStr(voucherOrder), reason);
+    }
+
+    @Override
+    @Transactional
+    public boolean saveVoucherOrder(VoucherOrder voucherOrder) {
         // 在Redis已经做了库存是否充足和一人一单的校验,能够到这里说明用户已经秒杀成功了,所以这里其实不需要加锁
         // 1.扣减库存
         boolean success = seckillVoucherService.update()
@@ -63,37 +144,95 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         if(!success){
             // 扣减库存失败
             log.error("库存不足");
-            return;
+            return false;
         }
         // 2.创建订单
         save(voucherOrder);
+        return true;
+    }
+
+    @Override
+    @Transactional
+    public boolean saveVoucherOrderBatch(Long voucherID, List<VoucherOrder> orders) {
+        int count = orders.size();
+        // 1.一次性扣减整组库存 stock = stock - n 库存不够整组扣减时不做任何修改
+        boolean success = seckillVoucherService.update()
+                .setSql("stock = stock - " + count)
+                .eq("voucher_id", voucherID)
+                .ge("stock", count)
+                .update();
+        if (!success) {
+            return false;
+        }
+        // 2.多行插入订单 失败时抛异常回滚库存
+        getBaseMapper().insertBatch(orders);
+        return true;
     }
 
     @Override
     public Result seckillVoucher(Long voucherID) {
         Long userID = UserHolder.getUser().getId();
 
-        // 1.执行lua脚本,判断是否有资格下单
+        // 0.布隆过滤器判定优惠券不存在 不再执行lua脚本
+        if (!idBloomFilter.mightContain(BLOOM_VOUCHER_KEY, voucherID)) {
+            return Result.fail("优惠券不存在");
+        }
+
+        // 1.本地判断是否在秒杀时间窗口内 窗口外不访问Redis
+        SeckillSaleScheduler.SaleState state = seckillSaleScheduler.state(voucherID);
+        if (state == SeckillSaleScheduler.SaleState.NOT_FOUND) {
+            return Result.fail("优惠券不存在");
+        }
+        if (state == SeckillSaleScheduler.SaleState.NOT_STARTED) {
+            return Result.fail("秒杀尚未开始");
+        }
+        if (state == SeckillSaleScheduler.SaleState.ENDED) {
+            return Result.fail("秒杀已经结束");
+        }
+
+        // 2.用户固定落到一个库存分片 该分片已售罄时不再访问Redis
+        int shards = seckillStockManager.shardCount(voucherID);
+        int shard = seckillStockManager.shardOf(voucherID, userID, shards);
+        if (seckillStockManager.isSoldOut(voucherID, shard)) {
+            return Result.fail("库存不足");
+        }
+
+        // 3.执行lua脚本,判断是否有资格下单
         Long result = stringRedisTemplate.execute(
                 SECKILL_SCRIPT,
-                Collections.emptyList(),
-                voucherID.toString(),
+                Arrays.asList(
+                        seckillStockManager.stockKey(voucherID, shard, shards),
+                        seckillStockManager.orderKey(voucherID, shard, shards)),
                 userID.toString()
         );
         if(result == 1){
+            // 记下售罄并广播 之后的请求直接在本地拦截
+            seckillStockManager.markSoldOut(voucherID, shard);
             return Result.fail("库存不足");
         }
         if(result == 2){
             return Result.fail("重复下单");
         }
+        if(result == 3){
+            // 库存未加载 不能当作售罄广播 等SeckillSaleScheduler重建
+            log.warn("秒杀库存未加载，voucherId=" + voucherID + "，shard=" + shard);
+            return Result.fail("库存未就绪，请稍后重试");
+        }
         // 有购买资格
         long orderID = redisIdWorker.nextID("order");
-        // 2.保存信息到阻塞队列,会有一个线程不断从当中取出信息,执行扣库存和生成订单
+        // 4.订单先追加到本地发件箱 由后台线程批量发送到Kafka 再由消费者扣库存和生成订单
         VoucherOrder voucherOrder = new VoucherOrder();
         voucherOrder.setId(orderID);    // 订单ID
         voucherOrder.setUserId(userID); // 用户ID
         voucherOrder.setVoucherId(voucherID); // 优惠券ID
-        kafkaTemplate.send(ORDER_TOPIC, JSONUtil.toJsonStr(voucherOrder));
+        try {
+            orderOutbox.append(JSONUtil.toJsonStr(voucherOrder));
+        } catch (Exception e) {
+            // 写不进发件箱（磁盘满等） 归还Redis中的库存和下单资格
+            log.error("写入订单发件箱失败，orderId=" + orderID, e);
+            seckillStockManager.rollback(voucherID, shard, shards, userID);
+            return Result.fail("下单失败，请稍后重试");
+        }
         return Result.ok(orderID);
     }
 
@@ -1,20 +1,30 @@
 package com.jktt.service.impl;
 
+import cn.hutool.core.bean.BeanUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.jktt.dto.Result;
+import com.jktt.dto.ShopVoucherList;
 import com.jktt.entity.Voucher;
 import com.jktt.mapper.VoucherMapper;
 import com.jktt.entity.SeckillVoucher;
 import com.jktt.service.ISeckillVoucherService;
 import com.jktt.service.IVoucherService;
-import org.springframework.data.redis.core.StringRedisTemplate;
+import com.jktt.utils.AfterCommit;
+import com.jktt.utils.IdBloomFilter;
+import com.jktt.utils.SeckillSaleScheduler;
+import com.jktt.utils.SeckillStockManager;
+import com.jktt.utils.TwoLevelCacheClient;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
-import static com.jktt.utils.RedisConstants.SECKILL_STOCK_KEY;
+import static com.jktt.utils.RedisConstants.*;
 
 /**
  * <p>
@@ -31,18 +41,76 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
     private ISeckillVoucherService seckillVoucherService;
 
     @Resource
-    private StringRedisTemplate stringRedisTemplate;
+    private IdBloomFilter idBloomFilter;
 
+    @Resource
+    private SeckillStockManager seckillStockManager;
+
+    @Resource
+    private TwoLevelCacheClient twoLevelCacheClient;
+
+    @Resource
+    private SeckillSaleScheduler seckillSaleScheduler;
 
 
     @Override
     public Result queryVoucherOfShop(Long shopId) {
-        // 查询优惠券信息
-        List<Voucher> vouchers = getBaseMapper().queryVoucherOfShop(shopId);
-        // 返回结果
+        // 1.通过二级缓存查询优惠券列表
+        ShopVoucherList cached = twoLevelCacheClient.queryWithPassThrough(
+                CACHE_SHOP_VOUCHERS_KEY, shopId, ShopVoucherList.class, this::loadVoucherList,
+                CACHE_SHOP_VOUCHERS_TTL, TimeUnit.MINUTES);
+        if (cached == null || cached.getVouchers() == null || cached.getVouchers().isEmpty()) {
+            return Result.ok(Collections.emptyList());
+        }
+
+        // 2.秒杀券的实时库存 一次MGET
+        List<Long> seckillIds = new ArrayList<>();
+        for (Voucher voucher : cached.getVouchers()) {
+            // 关联到秒杀信息的才是秒杀券
+            if (voucher.getBeginTime() != null) {
+                seckillIds.add(voucher.getId());
+            }
+        }
+        Map<Long, Integer> stocks = seckillStockManager.currentStocks(seckillIds);
+
+        // 3.缓存中的对象是共享的 复制后再覆盖库存
+        List<Voucher> vouchers = new ArrayList<>(cached.getVouchers().size());
+        for (Voucher voucher : cached.getVouchers()) {
+            Integer stock = stocks.get(voucher.getId());
+            if (stock == null) {
+                vouchers.add(voucher);
+                continue;
+            }
+            Voucher copy = BeanUtil.copyProperties(voucher, Voucher.class);
+            copy.setStock(stock);
+            vouchers.add(copy);
+        }
         return Result.ok(vouchers);
     }
 
+    @Override
+    public void addVoucher(Voucher voucher) {
+        // 保存优惠券
+        save(voucher);
+        // 删除店铺的优惠券列表缓存
+        invalidateVoucherList(voucher.getShopId());
+    }
+
+    private ShopVoucherList loadVoucherList(Long shopId) {
+        ShopVoucherList list = new ShopVoucherList();
+        list.setVouchers(getBaseMapper().queryVoucherOfShop(shopId));
+        return list;
+    }
+
+    /**
+     * 事务提交后再删除 提交前删除的话 其它请求可能又把旧列表加载回缓存
+     */
+    private void invalidateVoucherList(Long shopId) {
+        if (shopId != null) {
+            AfterCommit.run(() -> twoLevelCacheClient.invalidate(CACHE_SHOP_VOUCHERS_KEY + shopId));
+        }
+    }
+
     @Override
     @Transactional
     public void addSeckillVoucher(Voucher voucher) {
@@ -55,7 +123,13 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setBeginTime(voucher.getBeginTime());
         seckillVoucher.setEndTime(voucher.getEndTime());
         seckillVoucherService.save(seckillVoucher);
-        // 保存秒杀库存到Redis中
-        stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY + voucher.getId(), voucher.getStock().toString());
+        // 事务提交后本节点登记时间窗口、登记到布隆过滤器 回滚时不会留下可以下单的秒杀券
+        // Redis库存由定时任务在开始前lookahead-seconds内预热 其它节点也由定时任务加载时间窗口
+        AfterCommit.run(() -> {
+            seckillSaleScheduler.register(seckillVoucher);
+            idBloomFilter.add(BLOOM_VOUCHER_KEY, voucher.getId());
+        });
+        // 删除店铺的优惠券列表缓存
+        invalidateVoucherList(voucher.getShopId());
     }
 }
@@ -0,0 +1,194 @@
+package com.jktt.utils;
+
+import cn.hutool.core.util.BooleanUtil;
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.jktt.entity.Follow;
+import com.jktt.mapper.FollowMapper;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.*;
+
+import static com.jktt.utils.RedisConstants.*;
+
+/**
+ * 关注的人发布的博客（Feed流）
+ * 推模式：发布时把博客id按发布时间写入每个粉丝的收件箱 feed:{userId}
+ * 拉模式：粉丝数超过push-threshold的作者只写自己的发件箱 feed:outbox:{authorId} 并登记到 feed:pull:authors
+ * 读取时合并自己的收件箱和关注的拉模式作者的发件箱 按 时间戳+偏移量 滚动分页
+ */
+@Slf4j
+@Component
+public class BlogFeed {
+
+    // 分批读取粉丝的批大小 也是一次pipeline写入的收件箱数量
+    private static final int FOLLOWER_BATCH_SIZE = 1000;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private FollowMapper followMapper;
+
+    @Resource
+    private FollowGraph followGraph;
+
+    @Resource
+    private ThreadPoolTaskExecutor feedFanoutExecutor;
+
+    // 粉丝数超过该值的作者改为拉模式
+    @Value("${hmdp.feed.push-threshold:5000}")
+    private long pushThreshold;
+
+    // 每个收件箱/发件箱最多保留的博客数
+    @Value("${hmdp.feed.box-max-size:1000}")
+    private int boxMaxSize;
+
+    /**
+     * 发布博客 异步推送给粉丝
+     * @param timestamp 发布时间（毫秒） 作为分数
+     */
+    public void publish(Long authorId, Long blogId, long timestamp) {
+        feedFanoutExecutor.execute(() -> {
+            try {
+                fanOut(authorId, blogId.toString(), timestamp);
+            } catch (Exception e) {
+                log.error("博客推送失败 authorId:{} blogId:{}", authorId, blogId, e);
+            }
+        });
+    }
+
+    private void fanOut(Long authorId, String blogId, long timestamp) {
+        // 1.大V只写发件箱 粉丝读取时来拉 一旦转为拉模式不再切回 避免已写入发件箱的博客丢失
+        boolean pull = BooleanUtil.isTrue(
+                stringRedisTemplate.opsForSet().isMember(FEED_PULL_AUTHORS_KEY, authorId.toString()));
+        if (!pull) {
+            Integer followers = followMapper.selectCount(
+                    new LambdaQueryWrapper<Follow>().eq(Follow::getFollowUserId, authorId));
+            pull = followers != null && followers > pushThreshold;
+        }
+        if (pull) {
+            String outboxKey = FEED_OUTBOX_KEY + authorId;
+            stringRedisTemplate.opsForSet().add(FEED_PULL_AUTHORS_KEY, authorId.toString());
+            stringRedisTemplate.opsForZSet().add(outboxKey, blogId, timestamp);
+            stringRedisTemplate.opsForZSet().removeRange(outboxKey, 0, -boxMaxSize - 1);
+            return;
+        }
+
+        // 2.按主键分批读取粉丝 每批一次pipeline写入收件箱
+        long lastId = 0;
+        while (true) {
+            List<Follow> follows = followMapper.selectList(new LambdaQueryWrapper<Follow>()
+                    .select(Follow::getId, Follow::getUserId)
+                    .eq(Follow::getFollowUserId, authorId)
+                    .gt(Follow::getId, lastId)
+                    .orderByAsc(Follow::getId)
+                    .last("limit " + FOLLOWER_BATCH_SIZE));
+            if (follows.isEmpty()) {
+                return;
+            }
+            stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public Object execute(RedisOperations operations) throws DataAccessException {
+                    for (Follow follow : follows) {
+                        String feedKey = FEED_KEY + follow.getUserId();
+                        operations.opsForZSet().add(feedKey, blogId, timestamp);
+                        // 收件箱只保留最新的boxMaxSize条
+                        operations.opsForZSet().removeRange(feedKey, 0, -boxMaxSize - 1);
+                    }
+                    return null;
+                }
+            });
+            lastId = follows.get(follows.size() - 1).getId();
+        }
+    }
+
+    /**
+     * 滚动查询
+     * @param max 上一页最后一条的时间戳 第一页传当前时间
+     * @param offset 上一页中和max时间戳相同的条数 需要跳过
+     */
+    @SuppressWarnings("unchecked")
+    public FeedPage scroll(Long userId, long max, int offset, int count) {
+        // 1.自己的收件箱 + 关注的拉模式作者的发件箱
+        List<String> keys = new ArrayList<>();
+        keys.add(FEED_KEY + userId);
+        pullAuthorsFollowedBy(userId).forEach(authorId -> keys.add(FEED_OUTBOX_KEY + authorId));
+
+        // 2.每个来源取 offset+count 条 合并后足够跳过offset再取count条
+        List<Object> results = stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            public Object execute(RedisOperations operations) throws DataAccessException {
+                for (String key : keys) {
+                    operations.opsForZSet().reverseRangeByScoreWithScores(key, 0, max, 0, offset + count);
+                }
+                return null;
+            }
+        });
+        Map<String, Double> merged = new HashMap<>();
+        for (Object result : results) {
+            if (result == null) {
+                continue;
+            }
+            for (ZSetOperations.TypedTuple<String> tuple : (Set<ZSetOperations.TypedTuple<String>>) result) {
+                merged.merge(tuple.getValue(), tuple.getScore(), Math::max);
+            }
+        }
+        // 和ZREVRANGEBYSCORE一致：分数倒序 分数相同按member倒序
+        List<Map.Entry<String, Double>> sorted = new ArrayList<>(merged.entrySet());
+        sorted.sort((a, b) -> {
+            int c = Double.compare(b.getValue(), a.getValue());
+            return c != 0 ? c : b.getKey().compareTo(a.getKey());
+        });
+
+        // 3.跳过上一页已经返回的 再取count条 同时计算下一页的minTime和offset
+        FeedPage page = new FeedPage();
+        page.setBlogIds(new ArrayList<>(count));
+        page.setMinTime(max);
+        int skipped = 0;
+        int os = offset;
+        for (Map.Entry<String, Double> entry : sorted) {
+            long time = entry.getValue().longValue();
+            if (time == max && skipped < offset) {
+                skipped++;
+                continue;
+            }
+            if (page.getBlogIds().size() >= count) {
+                break;
+            }
+            page.getBlogIds().add(Long.valueOf(entry.getKey()));
+            if (time == page.getMinTime()) {
+                os++;
+            } else {
+                page.setMinTime(time);
+                os = 1;
+            }
+        }
+        page.setOffset(os);
+        return page;
+    }
+
+    private List<Long> pullAuthorsFollowedBy(Long userId) {
+        // 关注集合与拉模式作者集合求交集
+        return followGraph.intersect(userId, FEED_PULL_AUTHORS_KEY);
+    }
+
+    @Data
+    public static class FeedPage {
+        private List<Long> blogIds;
+        // 本页最后一条的时间戳 作为下一页的max
+        private Long minTime;
+        // 本页中和minTime相同的条数 下一页需要跳过
+        private Integer offset;
+    }
+}
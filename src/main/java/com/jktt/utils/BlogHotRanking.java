@@ -0,0 +1,199 @@
+package com.jktt.utils;
+
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.util.BooleanUtil;
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.jktt.entity.Blog;
+import com.jktt.mapper.BlogMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static com.jktt.utils.RedisConstants.*;
+
+/**
+ * 博客热榜 ZSET blog:hot member为博客id
+ * score = 点赞数 + 发布时间加成（开启时间衰减时 每decay-hours-per-like小时相当于一个赞）
+ * 加成只和发布时间有关 点赞时ZINCRBY 1即可增量维护
+ * 定时任务按数据库全量重建 校正增量更新的误差并裁剪到max-size
+ * 重建期间暂停点赞数写回 数据库中的点赞数不变 换上新热榜时由Lua把还没写回的增量（包括重建期间的点赞）合并进去
+ */
+@Slf4j
+@Component
+public class BlogHotRanking implements ApplicationRunner {
+
+    // 重建时分批读取的批大小
+    private static final int LOAD_BATCH_SIZE = 1000;
+    // 等待正在进行的点赞数写回结束的最长时间
+    private static final long LIKE_FLUSH_WAIT_SECONDS = 60L;
+
+    // 只给已在热榜中的博客加分 被裁剪掉的博客没有发布时间加成 直接ZINCRBY会得到错误的分数 等重建时再放回
+    private static final DefaultRedisScript<Long> INCR_IF_PRESENT_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('zscore', KEYS[1], ARGV[1]) then " +
+                    "redis.call('zincrby', KEYS[1], ARGV[2], ARGV[1]) return 1 end " +
+                    "return 0", Long.class);
+
+    private static final DefaultRedisScript<Long> SWAP_SCRIPT;
+    static {
+        SWAP_SCRIPT = new DefaultRedisScript<>();
+        SWAP_SCRIPT.setLocation(new ClassPathResource("blog_hot_swap.lua"));
+        SWAP_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private BlogMapper blogMapper;
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    // 0表示不衰减 按点赞数排序
+    @Value("${hmdp.blog.hot.decay-hours-per-like:0}")
+    private double decayHoursPerLike;
+
+    // 热榜只保留前max-size名 更深的分页回退到数据库
+    @Value("${hmdp.blog.hot.max-size:10000}")
+    private int maxSize;
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        // 第一次启动时热榜还不存在
+        if (BooleanUtil.isFalse(stringRedisTemplate.hasKey(BLOG_HOT_KEY))) {
+            rebuild();
+        }
+    }
+
+    /**
+     * 新发布的博客
+     */
+    public void add(Long blogId, int liked, LocalDateTime createTime) {
+        stringRedisTemplate.opsForZSet().add(BLOG_HOT_KEY, blogId.toString(), score(liked, createTime));
+    }
+
+    /**
+     * 点赞数变化
+     */
+    public void incrLiked(Long blogId, int delta) {
+        stringRedisTemplate.execute(INCR_IF_PRESENT_SCRIPT,
+                Collections.singletonList(BLOG_HOT_KEY), blogId.toString(), String.valueOf(delta));
+    }
+
+    /**
+     * 分页查询热榜
+     * @return 博客id 按热度倒序 热榜不存在或超出保留范围时返回null
+     */
+    public List<Long> page(int current, int pageSize) {
+        // 负数下标在ZREVRANGE中从末尾算起 页码小于1按第一页
+        long start = (long) (Math.max(current, 1) - 1) * pageSize;
+        if (start >= maxSize) {
+            return null;
+        }
+        Set<String> ids = stringRedisTemplate.opsForZSet().reverseRange(BLOG_HOT_KEY, start, start + pageSize - 1);
+        if (ids == null || ids.isEmpty()) {
+            // 区分热榜不存在和已经翻到底
+            return BooleanUtil.isTrue(stringRedisTemplate.hasKey(BLOG_HOT_KEY)) ? Collections.emptyList() : null;
+        }
+        List<Long> result = new ArrayList<>(ids.size());
+        ids.forEach(id -> result.add(Long.valueOf(id)));
+        return result;
+    }
+
+    /**
+     * 按数据库重建热榜 写入临时key后RENAME 重建期间读请求不受影响
+     * 持有点赞数写回的锁 读库到换上新热榜之间tb_blog.liked不会变化 增量都还在Redis中
+     */
+    @Scheduled(cron = "${hmdp.blog.hot.rebuild-cron:0 0 4 * * ?}")
+    public void rebuild() {
+        // 多个节点同时触发时只有一个执行 看门狗在重建期间自动续期 释放时校验持有者
+        RLock lock = redissonClient.getLock(LOCK_BLOG_HOT_KEY);
+        if (!lock.tryLock()) {
+            return;
+        }
+        // 等待正在进行的点赞数写回结束 重建期间不再写回
+        RLock flushLock = redissonClient.getLock(LOCK_BLOG_LIKED_FLUSH_KEY);
+        try {
+            if (!flushLock.tryLock(LIKE_FLUSH_WAIT_SECONDS, TimeUnit.SECONDS)) {
+                log.warn("点赞数写回一直未结束 本次不重建热榜");
+                return;
+            }
+            try {
+                load();
+            } finally {
+                flushLock.unlock();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void load() {
+        String tmpKey = BLOG_HOT_KEY + ":tmp:" + UUID.randomUUID().toString(true);
+        try {
+            long lastId = 0;
+            int total = 0;
+            while (true) {
+                List<Blog> blogs = blogMapper.selectList(new LambdaQueryWrapper<Blog>()
+                        .select(Blog::getId, Blog::getLiked, Blog::getCreateTime)
+                        .gt(Blog::getId, lastId)
+                        .orderByAsc(Blog::getId)
+                        .last("limit " + LOAD_BATCH_SIZE));
+                if (blogs.isEmpty()) {
+                    break;
+                }
+                Set<ZSetOperations.TypedTuple<String>> tuples = new HashSet<>(blogs.size() * 2);
+                for (Blog blog : blogs) {
+                    int liked = blog.getLiked() == null ? 0 : blog.getLiked();
+                    tuples.add(new DefaultTypedTuple<>(blog.getId().toString(), score(liked, blog.getCreateTime())));
+                }
+                // 一批一条ZADD
+                stringRedisTemplate.opsForZSet().add(tmpKey, tuples);
+                // 只保留前maxSize名 临时key不会无限增长
+                stringRedisTemplate.opsForZSet().removeRange(tmpKey, 0, -maxSize - 1);
+                total += blogs.size();
+                lastId = blogs.get(blogs.size() - 1).getId();
+            }
+            // 合并还没写回的点赞数增量后换上新热榜
+            stringRedisTemplate.execute(SWAP_SCRIPT,
+                    Arrays.asList(tmpKey, BLOG_HOT_KEY, BLOG_LIKED_DELTA_KEY, BLOG_LIKED_FLUSHING_KEY));
+            log.info("博客热榜重建完成 共{}篇", total);
+        } catch (Exception e) {
+            stringRedisTemplate.delete(tmpKey);
+            log.error("博客热榜重建失败", e);
+        }
+    }
+
+    private double score(int liked, LocalDateTime createTime) {
+        if (decayHoursPerLike <= 0) {
+            return liked;
+        }
+        if (createTime == null) {
+            createTime = LocalDateTime.now();
+        }
+        long millis = createTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        return liked + millis / (decayHoursPerLike * TimeUnit.HOURS.toMillis(1));
+    }
+}
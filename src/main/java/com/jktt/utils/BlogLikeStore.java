@@ -0,0 +1,190 @@
+package com.jktt.utils;
+
+import cn.hutool.core.lang.UUID;
+import com.jktt.entity.Blog;
+import com.jktt.mapper.BlogMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.*;
+
+import static com.jktt.utils.RedisConstants.*;
+
+/**
+ * 博客点赞
+ * 1.每篇博客一个ZSET blog:liked:{id} 记录点过赞的用户 同一个用户再点一次就是取消 不会重复计数
+ * 2.点赞数的变化先累加在hash blog:liked:delta 定时合并后批量写回tb_blog.liked
+ * 3.每批写回的批次id和点赞数在同一个事务中写入tb_blog_like_flush 同一批重试时跳过 不会重复累加
+ */
+@Slf4j
+@Component
+public class BlogLikeStore {
+
+    // 每条UPDATE最多更新的博客数
+    private static final int FLUSH_BATCH_SIZE = 500;
+    // 批次登记保留的天数 写回失败的flushing会在下一轮重试 远小于这个时间
+    private static final int FLUSH_RECORD_DAYS = 1;
+
+    private static final DefaultRedisScript<Long> LIKE_SCRIPT;
+    static {
+        LIKE_SCRIPT = new DefaultRedisScript<>();
+        LIKE_SCRIPT.setLocation(new ClassPathResource("blog_like.lua"));
+        LIKE_SCRIPT.setResultType(Long.class);
+    }
+
+    private static final DefaultRedisScript<String> FLUSH_SCRIPT;
+    static {
+        FLUSH_SCRIPT = new DefaultRedisScript<>();
+        FLUSH_SCRIPT.setLocation(new ClassPathResource("blog_like_flush.lua"));
+        FLUSH_SCRIPT.setResultType(String.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private BlogMapper blogMapper;
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    @Resource
+    private TransactionTemplate transactionTemplate;
+
+    /**
+     * 点赞或取消点赞
+     * @return 点赞数的变化 1为点赞 -1为取消
+     */
+    public long toggle(Long blogId, Long userId) {
+        Long delta = stringRedisTemplate.execute(
+                LIKE_SCRIPT,
+                Arrays.asList(BLOG_LIKED_KEY + blogId, BLOG_LIKED_DELTA_KEY),
+                userId.toString(), String.valueOf(System.currentTimeMillis()), blogId.toString());
+        return delta == null ? 0 : delta;
+    }
+
+    /**
+     * 填充当前用户是否点过赞 并把还没写回数据库的增量加到点赞数上
+     * 一页博客只访问一次Redis
+     * @param userId 未登录时为null
+     */
+    public void fillLikes(List<Blog> blogs, Long userId) {
+        if (blogs == null || blogs.isEmpty()) {
+            return;
+        }
+        List<Object> fields = new ArrayList<>(blogs.size());
+        blogs.forEach(blog -> fields.add(blog.getId().toString()));
+        List<Object> results = stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object execute(RedisOperations operations) throws DataAccessException {
+                operations.opsForHash().multiGet(BLOG_LIKED_DELTA_KEY, fields);
+                // 正在写回的增量还没进数据库 也要算上
+                operations.opsForHash().multiGet(BLOG_LIKED_FLUSHING_KEY, fields);
+                if (userId != null) {
+                    for (Blog blog : blogs) {
+                        operations.opsForZSet().score(BLOG_LIKED_KEY + blog.getId(), userId.toString());
+                    }
+                }
+                return null;
+            }
+        });
+        List<?> deltas = (List<?>) results.get(0);
+        List<?> flushing = (List<?>) results.get(1);
+        for (int i = 0; i < blogs.size(); i++) {
+            Blog blog = blogs.get(i);
+            long delta = parse(deltas, i) + parse(flushing, i);
+            if (delta != 0) {
+                int liked = blog.getLiked() == null ? 0 : blog.getLiked();
+                blog.setLiked((int) Math.max(0, liked + delta));
+            }
+            blog.setIsLike(userId != null && results.get(i + 2) != null);
+        }
+    }
+
+    /**
+     * 把累计的点赞数增量写回数据库
+     * 1.增量hash改名为flushing并生成本轮的id 之后的点赞写入新的hash 上一轮没写完的flushing沿用原来的id
+     * 2.flushing按博客id排序 每500条一批 批次id = 本轮id:这批第一篇博客的id
+     *   写完的批次从flushing中删除 剩下的重新分批时边界不变 批次id也不变
+     * 3.批次id和点赞数在同一个事务中写入 提交后删除失败或者节点宕机 重试时这批已登记就跳过
+     */
+    @Scheduled(fixedDelayString = "${hmdp.blog.like.flush-interval-ms:5000}")
+    public void flush() {
+        // 多个节点只有一个写回 看门狗在持有期间自动续期 写回再慢也不会被其它节点抢走
+        RLock lock = redissonClient.getLock(LOCK_BLOG_LIKED_FLUSH_KEY);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            String flushId = stringRedisTemplate.execute(
+                    FLUSH_SCRIPT,
+                    Arrays.asList(BLOG_LIKED_DELTA_KEY, BLOG_LIKED_FLUSHING_KEY, BLOG_LIKED_FLUSH_ID_KEY),
+                    UUID.randomUUID().toString(true));
+            if (flushId == null) {
+                return;
+            }
+            Map<Object, Object> entries = stringRedisTemplate.opsForHash().entries(BLOG_LIKED_FLUSHING_KEY);
+            TreeMap<Long, Long> sorted = new TreeMap<>();
+            entries.forEach((field, value) -> sorted.put(Long.valueOf(field.toString()), Long.valueOf(value.toString())));
+            Map<Long, Long> batch = new HashMap<>(FLUSH_BATCH_SIZE * 2);
+            List<Object> batchFields = new ArrayList<>(FLUSH_BATCH_SIZE);
+            String batchId = null;
+            for (Map.Entry<Long, Long> entry : sorted.entrySet()) {
+                if (batchId == null) {
+                    batchId = flushId + ":" + entry.getKey();
+                }
+                batchFields.add(entry.getKey().toString());
+                if (entry.getValue() != 0) {
+                    batch.put(entry.getKey(), entry.getValue());
+                }
+                if (batchFields.size() >= FLUSH_BATCH_SIZE) {
+                    flushBatch(batchId, batch, batchFields);
+                    batchId = null;
+                }
+            }
+            if (batchId != null) {
+                flushBatch(batchId, batch, batchFields);
+            }
+            stringRedisTemplate.delete(Arrays.asList(BLOG_LIKED_FLUSHING_KEY, BLOG_LIKED_FLUSH_ID_KEY));
+            blogMapper.deleteLikeFlushBefore(LocalDateTime.now().minusDays(FLUSH_RECORD_DAYS));
+        } catch (Exception e) {
+            log.error("点赞数写回数据库失败 下次重试", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static long parse(List<?> values, int i) {
+        Object value = values == null ? null : values.get(i);
+        return value == null ? 0 : Long.parseLong(value.toString());
+    }
+
+    private void flushBatch(String batchId, Map<Long, Long> batch, List<Object> batchFields) {
+        transactionTemplate.executeWithoutResult(status -> {
+            // 已经登记过 说明上次写入后没来得及从flushing中删除
+            if (blogMapper.insertLikeFlush(batchId) == 0) {
+                log.info("点赞数批次{}已经写回 跳过", batchId);
+                return;
+            }
+            if (!batch.isEmpty()) {
+                blogMapper.addLikedBatch(batch);
+            }
+        });
+        stringRedisTemplate.opsForHash().delete(BLOG_LIKED_FLUSHING_KEY, batchFields.toArray());
+        batch.clear();
+        batchFields.clear();
+    }
+}
@@ -11,8 +11,6 @@ import org.springframework.stereotype.Component;
 
 import javax.annotation.Resource;
 import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 
@@ -24,9 +22,18 @@ public class CacheClient {
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
-    // 一个线程池
-    // TODO ExecutorService
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
+    @Resource
+    private IdBloomFilter idBloomFilter;
+
+    @Resource
+    private CacheMetrics cacheMetrics;
+
+    // 共用的缓存重建调度 有界队列 同key去重
+    @Resource
+    private CacheRebuildScheduler cacheRebuildScheduler;
+
+    // 同一个key的并发回源在JVM内合并
+    private final SingleFlight singleFlight = new SingleFlight();
 
 
     public void set(String key, Object value, Long time, TimeUnit timeUnit) {
@@ -44,6 +51,10 @@ public class CacheClient {
     // 封装一个基于逻辑过期解决缓存击穿的工具
     public <R, ID> R queryWithLogicalExpire(
             String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit timeUnit) {
+        // 0.布隆过滤器判定不存在 直接返回
+        if (!idBloomFilter.mightContainKey(keyPrefix, id)) {
+            return null;
+        }
         String key = keyPrefix + id;
         // 1.从redis查询商铺缓存
         String json = stringRedisTemplate.opsForValue().get(key);
@@ -51,8 +62,10 @@ public class CacheClient {
         //isNotBlank: null、""、"\t\n"为false
         if (StrUtil.isBlank(json)) {
             // 3.不存在 直接返回null 热点key会提前存入缓存 如果查询到不存在则不是热点key
+            cacheMetrics.l2Miss(keyPrefix);
             return null;
         }
+        cacheMetrics.l2Hit(keyPrefix);
 
         // 4.存在 对json反序列化
         RedisData redisData = JSONUtil.toBean(json, RedisData.class);
@@ -68,30 +81,34 @@ public class CacheClient {
         }
 
         // 5.2. 过期
+        cacheMetrics.staleServe(keyPrefix);
         // 6.缓存重建 尝试获取互斥锁
         String lockKey = LOCK_SHOP_KEY + id;
 
-        // 7.判断是否获取锁
-
-        if (tryLock(lockKey)) {
-            // 7.1.是 开启独立线程实现缓存重建 利用线程池做 自己创建线程性能不好
-            CACHE_REBUILD_EXECUTOR.submit(() -> {
-                try {
-                    // 缓存重建 (因为我的逻辑时间设置得很短 所以走了数据库)
-                    // 查询数据库
-                    R dbR = dbFallback.apply(id);
-
-                    // 缓存重建
-                    this.setWithLogicalExpire(key, dbR, time, timeUnit);
-
-                }catch (Exception e){
-                    throw new RuntimeException(e);
-                }finally {
-                    //释放锁 无论缓存重建是否成功都必须要释放锁
-                    unlock(lockKey);
-                }
-            });
-        }
+        // 7.JVM内同一个key只提交一次重建任务 任务里再抢Redis锁 保证跨节点也只有一个线程重建
+        // 队列满或正在关闭时不会提交 本次照常返回旧数据
+        cacheRebuildScheduler.submit(keyPrefix, key, () -> {
+            // 7.1.判断是否获取锁 没抢到说明其它节点正在重建
+            boolean locked = tryLock(lockKey);
+            cacheMetrics.rebuildLock(keyPrefix, locked);
+            if (!locked) {
+                return;
+            }
+            try {
+                // 缓存重建 (因为我的逻辑时间设置得很短 所以走了数据库)
+                // 查询数据库
+                R dbR = cacheMetrics.recordDbFallback(keyPrefix, () -> dbFallback.apply(id));
+
+                // 缓存重建
+                this.setWithLogicalExpire(key, dbR, time, timeUnit);
+
+            }catch (Exception e){
+                throw new RuntimeException(e);
+            }finally {
+                //释放锁 无论缓存重建是否成功都必须要释放锁
+                unlock(lockKey);
+            }
+        });
 
         // 7.2.返回商铺信息
         // 否 返回的是过期的商铺信息
@@ -111,6 +128,10 @@ public class CacheClient {
     // 返回值类型不确定 使用泛型Class<R> 泛型的推断
     public <R, ID> R queryWithPassThrough(
             String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit timeUnit) {
+        // 0.布隆过滤器判定不存在 不查Redis也不查数据库
+        if (!idBloomFilter.mightContainKey(keyPrefix, id)) {
+            return null;
+        }
         String key = keyPrefix + id;
 
         // 1.从redis查询商铺缓存
@@ -120,27 +141,32 @@ public class CacheClient {
         //isNotBlank: null、""、"\t\n"为false
         if (StrUtil.isNotBlank(json)) {
             // 3.存在 直接返回
+            cacheMetrics.l2Hit(keyPrefix);
             return JSONUtil.toBean(json, type);
         }
         // 判断是否命中空值
         if (json != null) {
             // 返回一个错误信息
+            cacheMetrics.l2NullHit(keyPrefix);
             return null;
         }
-
-        // 4.不存在 根据id查询数据库
-        R r = dbFallback.apply(id);
-        // 4.1.判断商铺是否存在
-        if (r == null) {
-            // 4.2.不存在 返回404
-            // 将空值写入redis
-            stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
-            return null;
-        }
-        // 4.3.存在 存入redis
-        this.set(key, r, time, timeUnit);
-
-        // 5.返回商铺信息
-        return r;
+        cacheMetrics.l2Miss(keyPrefix);
+
+        // 4.不存在 根据id查询数据库 同一个key的并发请求只有一个线程查库 其余线程等待结果
+        return singleFlight.execute(key, () -> {
+            R r = cacheMetrics.recordDbFallback(keyPrefix, () -> dbFallback.apply(id));
+            // 4.1.判断商铺是否存在
+            if (r == null) {
+                // 4.2.不存在 返回404
+                // 将空值写入redis
+                stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
+                return null;
+            }
+            // 4.3.存在 存入redis
+            this.set(key, r, time, timeUnit);
+
+            // 5.返回商铺信息
+            return r;
+        });
     }
 }
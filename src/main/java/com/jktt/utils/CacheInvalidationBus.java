@@ -0,0 +1,141 @@
+package com.jktt.utils;
+
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.thread.ThreadFactoryBuilder;
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.jktt.utils.RedisConstants.CACHE_INVALIDATE_CHANNEL;
+
+/**
+ * 跨节点的L1失效广播
+ * 本节点删除/更新本地缓存后把key发布到Redis频道，其它节点订阅后删除各自的Caffeine缓存
+ * 1.短时间内的多次失效先攒在pendingKeys里，定时合并成一条消息发布
+ * 2.每个节点定时发心跳，长时间收不到自己的心跳视为订阅断开，恢复后清空整个L1
+ *   心跳用单独的线程 共用的定时任务线程池被慢任务占满时不会误判断线
+ */
+@Component
+@Slf4j
+public class CacheInvalidationBus implements MessageListener {
+
+    // 区分消息来源 自己发出的失效消息不用再处理
+    private static final String NODE_ID = UUID.randomUUID().toString(true);
+    // 超过该时间没收到心跳认为订阅已断开
+    private static final long HEARTBEAT_TIMEOUT_MILLIS = 3000L;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private LocalCacheManager localCacheManager;
+
+    @Value("${hmdp.cache.invalidation.heartbeat-interval-ms:1000}")
+    private long heartbeatIntervalMillis;
+
+    private final Set<String> pendingKeys = ConcurrentHashMap.newKeySet();
+
+    private ScheduledExecutorService heartbeatExecutor;
+
+    private volatile long lastHeartbeatMillis = System.currentTimeMillis();
+    private volatile boolean disconnected = false;
+
+    @PostConstruct
+    public void init() {
+        heartbeatExecutor = Executors.newSingleThreadScheduledExecutor(
+                ThreadFactoryBuilder.create().setNamePrefix("l1-invalidation-heartbeat-").setDaemon(true).build());
+        heartbeatExecutor.scheduleWithFixedDelay(
+                this::heartbeat, heartbeatIntervalMillis, heartbeatIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        heartbeatExecutor.shutdownNow();
+    }
+
+    /**
+     * 登记需要广播失效的key 由定时任务合并发送
+     */
+    public void publish(String key) {
+        pendingKeys.add(key);
+    }
+
+    // 合并发送：一个周期内的所有key只发一条消息
+    @Scheduled(fixedDelayString = "${hmdp.cache.invalidation.flush-interval-ms:20}")
+    public void flush() {
+        if (pendingKeys.isEmpty()) {
+            return;
+        }
+        List<String> keys = new ArrayList<>(pendingKeys);
+        pendingKeys.removeAll(keys);
+        try {
+            send(keys);
+        } catch (Exception e) {
+            // 发送失败 放回去下个周期重试
+            pendingKeys.addAll(keys);
+            log.warn("L1失效消息发送失败，等待重试：{}", e.getMessage());
+        }
+    }
+
+    // 心跳：发一条空消息给自己 顺便检查订阅是否还活着
+    private void heartbeat() {
+        if (System.currentTimeMillis() - lastHeartbeatMillis > HEARTBEAT_TIMEOUT_MILLIS && !disconnected) {
+            disconnected = true;
+            log.warn("L1失效频道订阅中断，恢复后将清空本地缓存");
+        }
+        try {
+            send(new ArrayList<>());
+        } catch (Exception e) {
+            log.debug("L1失效频道心跳发送失败：{}", e.getMessage());
+        }
+    }
+
+    private void send(List<String> keys) {
+        JSONObject msg = new JSONObject();
+        msg.set("node", NODE_ID);
+        msg.set("keys", keys);
+        stringRedisTemplate.convertAndSend(CACHE_INVALIDATE_CHANNEL, msg.toString());
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        JSONObject msg = JSONUtil.parseObj(new String(message.getBody(), StandardCharsets.UTF_8));
+        boolean self = NODE_ID.equals(msg.getStr("node"));
+        if (self) {
+            lastHeartbeatMillis = System.currentTimeMillis();
+        }
+        // 1.断线重连后 期间错过的失效消息无法补回 直接清空整个L1
+        if (disconnected) {
+            disconnected = false;
+            localCacheManager.invalidateAll();
+            log.info("L1失效频道订阅已恢复，已清空本地缓存");
+            return;
+        }
+        // 2.自己发出的消息 本地已经删除过了
+        if (self) {
+            return;
+        }
+        List<String> keys = msg.getJSONArray("keys").toList(String.class);
+        if (!keys.isEmpty()) {
+            localCacheManager.invalidateAll(keys);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.jktt.utils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Supplier;
+
+/**
+ * 缓存各层的监控指标 按key前缀（如 cache:shop:）打标签
+ * cache.l1.requests     L1命中/未命中
+ * cache.l2.requests     L2命中/未命中/命中空值
+ * cache.db.fallback     回源数据库耗时（带百分位直方图）
+ * cache.stale.serves    逻辑过期后返回旧数据的次数
+ * cache.rebuild.lock    重建锁获取成功/冲突
+ * cache.rebuild.rejected 重建任务被拒绝
+ * L1的淘汰数和重建线程池的队列长度由Caffeine和线程池自身的指标提供
+ */
+@Component
+public class CacheMetrics {
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    // 每个前缀的计数器只创建一次 热点路径上只做一次map查找
+    private final Map<String, PrefixMeters> meters = new ConcurrentHashMap<>();
+
+    public void l1Hit(String keyPrefix) {
+        of(keyPrefix).l1Hit.increment();
+    }
+
+    public void l1Miss(String keyPrefix) {
+        of(keyPrefix).l1Miss.increment();
+    }
+
+    public void l2Hit(String keyPrefix) {
+        of(keyPrefix).l2Hit.increment();
+    }
+
+    public void l2Miss(String keyPrefix) {
+        of(keyPrefix).l2Miss.increment();
+    }
+
+    public void l2NullHit(String keyPrefix) {
+        of(keyPrefix).l2Null.increment();
+    }
+
+    public void staleServe(String keyPrefix) {
+        of(keyPrefix).staleServes.increment();
+    }
+
+    public void rebuildLock(String keyPrefix, boolean acquired) {
+        PrefixMeters m = of(keyPrefix);
+        (acquired ? m.lockAcquired : m.lockContended).increment();
+    }
+
+    public void rebuildRejected(String keyPrefix) {
+        of(keyPrefix).rebuildRejected.increment();
+    }
+
+    /**
+     * 记录回源数据库的耗时
+     */
+    public <R> R recordDbFallback(String keyPrefix, Supplier<R> loader) {
+        return of(keyPrefix).dbFallback.record(loader);
+    }
+
+    /**
+     * 导出Caffeine的命中、淘汰等统计（需要开启recordStats）
+     */
+    public void monitorCache(Cache<?, ?> cache, String name) {
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, name);
+    }
+
+    /**
+     * 导出线程池的活跃线程数、队列长度、完成任务数
+     */
+    public void monitorExecutor(ExecutorService executor, String name) {
+        new ExecutorServiceMetrics(executor, name, Collections.emptyList()).bindTo(meterRegistry);
+    }
+
+    private PrefixMeters of(String keyPrefix) {
+        PrefixMeters m = meters.get(keyPrefix);
+        if (m != null) {
+            return m;
+        }
+        return meters.computeIfAbsent(keyPrefix, PrefixMeters::new);
+    }
+
+    private class PrefixMeters {
+        private final Counter l1Hit;
+        private final Counter l1Miss;
+        private final Counter l2Hit;
+        private final Counter l2Miss;
+        private final Counter l2Null;
+        private final Counter staleServes;
+        private final Counter lockAcquired;
+        private final Counter lockContended;
+        private final Counter rebuildRejected;
+        private final Timer dbFallback;
+
+        private PrefixMeters(String prefix) {
+            l1Hit = counter("cache.l1.requests", prefix, "result", "hit");
+            l1Miss = counter("cache.l1.requests", prefix, "result", "miss");
+            l2Hit = counter("cache.l2.requests", prefix, "result", "hit");
+            l2Miss = counter("cache.l2.requests", prefix, "result", "miss");
+            l2Null = counter("cache.l2.requests", prefix, "result", "null");
+            staleServes = counter("cache.stale.serves", prefix);
+            lockAcquired = counter("cache.rebuild.lock", prefix, "result", "acquired");
+            lockContended = counter("cache.rebuild.lock", prefix, "result", "contended");
+            rebuildRejected = counter("cache.rebuild.rejected", prefix);
+            dbFallback = Timer.builder("cache.db.fallback")
+                    .tag("prefix", prefix)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry);
+        }
+
+        private Counter counter(String name, String prefix, String... tags) {
+            return Counter.builder(name).tag("prefix", prefix).tags(tags).register(meterRegistry);
+        }
+    }
+}
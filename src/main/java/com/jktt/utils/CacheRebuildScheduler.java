@@ -0,0 +1,87 @@
+package com.jktt.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 逻辑过期缓存的异步重建调度
+ * 1.同一个key已经在排队或执行时不重复提交
+ * 2.线程池队列满或正在关闭时拒绝提交 调用方继续返回旧数据
+ * 3.容器停止时不再接收新任务 等待已提交的重建完成（此时Redis和数据库连接还可用）
+ */
+@Component
+@Slf4j
+public class CacheRebuildScheduler implements SmartLifecycle {
+
+    @Resource
+    private ThreadPoolTaskExecutor cacheRebuildExecutor;
+
+    @Resource
+    private CacheMetrics cacheMetrics;
+
+    // 关闭时最多等待多久
+    @Value("${hmdp.cache.rebuild.drain-seconds:10}")
+    private long drainSeconds;
+
+    private final SingleFlight singleFlight = new SingleFlight();
+
+    private volatile boolean running = false;
+
+    @PostConstruct
+    public void init() {
+        cacheMetrics.monitorExecutor(cacheRebuildExecutor.getThreadPoolExecutor(), "cache.rebuild");
+    }
+
+    /**
+     * 提交重建任务
+     * @return 是否提交成功 已有同key任务或被拒绝时返回false
+     */
+    public boolean submit(String keyPrefix, String key, Runnable task) {
+        if (!running) {
+            cacheMetrics.rebuildRejected(keyPrefix);
+            return false;
+        }
+        try {
+            return singleFlight.executeAsync(key, task, cacheRebuildExecutor);
+        } catch (RejectedExecutionException e) {
+            // 队列已满 本次不重建 旧数据还能用 等下一次请求再提交
+            cacheMetrics.rebuildRejected(keyPrefix);
+            return false;
+        }
+    }
+
+    @Override
+    public void start() {
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        ThreadPoolExecutor executor = cacheRebuildExecutor.getThreadPoolExecutor();
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(drainSeconds, TimeUnit.SECONDS)) {
+                log.warn("缓存重建任务未在{}秒内完成 剩余{}个任务被丢弃", drainSeconds, executor.getQueue().size());
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+}
@@ -0,0 +1,146 @@
+package com.jktt.utils;
+
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.util.BooleanUtil;
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.jktt.entity.Follow;
+import com.jktt.mapper.FollowMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static com.jktt.utils.RedisConstants.*;
+
+/**
+ * 关注关系的Redis缓存 follows:{userId} 是该用户关注的人的id集合
+ * 集合不存在时从tb_follow加载 集合中固定有一个占位成员 没有关注任何人的用户也不会反复查库
+ * 写操作先写数据库 再把版本号follows:version:{userId}加一 集合已加载时同步SADD/SREM
+ * 加载时先读版本号再查库 写入临时集合后由Lua校验版本号未变再RENAME 查库期间的关注/取关不会被旧数据覆盖
+ * 集合和版本号都有过期时间 不活跃用户的集合会被回收
+ */
+@Component
+public class FollowGraph {
+
+    // 占位成员 用户id从1开始 不会冲突
+    private static final String PLACEHOLDER = "0";
+    // 加载时每批SADD的数量
+    private static final int LOAD_BATCH_SIZE = 1000;
+    // 临时集合的过期时间 加载失败时由过期删除 版本号变化时只供本次请求读取
+    private static final long LOADING_TTL_SECONDS = 10L;
+
+    private static final DefaultRedisScript<Long> UPDATE_SCRIPT;
+    private static final DefaultRedisScript<Long> LOAD_SCRIPT;
+    static {
+        UPDATE_SCRIPT = new DefaultRedisScript<>();
+        UPDATE_SCRIPT.setLocation(new ClassPathResource("follow_update.lua"));
+        UPDATE_SCRIPT.setResultType(Long.class);
+        LOAD_SCRIPT = new DefaultRedisScript<>();
+        LOAD_SCRIPT.setLocation(new ClassPathResource("follow_load.lua"));
+        LOAD_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private FollowMapper followMapper;
+
+    @Value("${hmdp.follow.ttl-seconds:86400}")
+    private long ttlSeconds;
+
+    public void add(Long userId, Long followUserId) {
+        update("SADD", userId, followUserId);
+    }
+
+    public void remove(Long userId, Long followUserId) {
+        update("SREM", userId, followUserId);
+    }
+
+    public boolean isFollowing(Long userId, Long followUserId) {
+        String key = ensureLoaded(userId);
+        return BooleanUtil.isTrue(stringRedisTemplate.opsForSet().isMember(key, followUserId.toString()));
+    }
+
+    /**
+     * 两个用户的共同关注
+     */
+    public List<Long> common(Long userId, Long otherUserId) {
+        return toIds(stringRedisTemplate.opsForSet().intersect(ensureLoaded(userId), ensureLoaded(otherUserId)));
+    }
+
+    /**
+     * 用户关注的人与另一个集合的交集
+     */
+    public List<Long> intersect(Long userId, String otherKey) {
+        return toIds(stringRedisTemplate.opsForSet().intersect(ensureLoaded(userId), otherKey));
+    }
+
+    /**
+     * 用户关注的所有人 按id升序
+     */
+    public List<Long> followees(Long userId) {
+        List<Long> ids = toIds(stringRedisTemplate.opsForSet().members(ensureLoaded(userId)));
+        Collections.sort(ids);
+        return ids;
+    }
+
+    private void update(String op, Long userId, Long followUserId) {
+        stringRedisTemplate.execute(
+                UPDATE_SCRIPT,
+                Arrays.asList(FOLLOWS_KEY + userId, FOLLOWS_VERSION_KEY + userId),
+                op, followUserId.toString(), String.valueOf(ttlSeconds));
+    }
+
+    /**
+     * 返回可以读取的集合key 通常是follows:{userId}
+     * 加载期间关注关系有变化时返回本次加载的临时集合 下次读取再重新加载
+     */
+    private String ensureLoaded(Long userId) {
+        String key = FOLLOWS_KEY + userId;
+        if (BooleanUtil.isTrue(stringRedisTemplate.hasKey(key))) {
+            return key;
+        }
+        // 1.先读版本号再查库 之后的修改都会让版本号变化
+        String versionKey = FOLLOWS_VERSION_KEY + userId;
+        String version = stringRedisTemplate.opsForValue().get(versionKey);
+        // 唯一索引(user_id, follow_user_id)覆盖了这个查询 不需要回表
+        List<Object> followUserIds = followMapper.selectObjs(new LambdaQueryWrapper<Follow>()
+                .select(Follow::getFollowUserId)
+                .eq(Follow::getUserId, userId));
+        List<String> members = new ArrayList<>(followUserIds.size() + 1);
+        members.add(PLACEHOLDER);
+        followUserIds.forEach(id -> members.add(id.toString()));
+        // 2.分批写入临时集合
+        String loadingKey = FOLLOWS_LOADING_KEY + userId + ":" + UUID.randomUUID().toString(true);
+        for (int i = 0; i < members.size(); i += LOAD_BATCH_SIZE) {
+            List<String> batch = members.subList(i, Math.min(i + LOAD_BATCH_SIZE, members.size()));
+            stringRedisTemplate.opsForSet().add(loadingKey, batch.toArray(new String[0]));
+        }
+        stringRedisTemplate.expire(loadingKey, LOADING_TTL_SECONDS, TimeUnit.SECONDS);
+        // 3.版本号没变才换成正式集合
+        Long loaded = stringRedisTemplate.execute(
+                LOAD_SCRIPT,
+                Arrays.asList(key, versionKey, loadingKey),
+                version == null ? "" : version, String.valueOf(ttlSeconds));
+        return loaded != null && loaded == 1 ? key : loadingKey;
+    }
+
+    private static List<Long> toIds(Set<String> members) {
+        if (members == null || members.isEmpty()) {
+            return new ArrayList<>();
+        }
+        List<Long> ids = new ArrayList<>(members.size());
+        for (String member : members) {
+            if (!PLACEHOLDER.equals(member)) {
+                ids.add(Long.valueOf(member));
+            }
+        }
+        return ids;
+    }
+}
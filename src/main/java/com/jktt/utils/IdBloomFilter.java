@@ -0,0 +1,183 @@
+package com.jktt.utils;
+
+import cn.hutool.bloomfilter.BitSetBloomFilter;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.jktt.mapper.BlogMapper;
+import com.jktt.mapper.ShopMapper;
+import com.jktt.mapper.UserMapper;
+import com.jktt.mapper.VoucherMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RBloomFilter;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.StringCodec;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.jktt.utils.RedisConstants.*;
+
+/**
+ * 已存在id的布隆过滤器 用于拦截缓存穿透
+ * Redis中的RBloomFilter是各节点共享的全量数据 本地BitSet是它的镜像
+ * 本地命中直接放行 本地未命中再查Redis（可能是其它节点刚新增的id） 两边都没有才判定为不存在
+ */
+@Slf4j
+@Component
+public class IdBloomFilter implements ApplicationRunner {
+
+    // 启动时分批读取id的批大小
+    private static final int LOAD_BATCH_SIZE = 1000;
+
+    @Resource
+    private RedissonClient redissonClient;
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private ShopMapper shopMapper;
+    @Resource
+    private UserMapper userMapper;
+    @Resource
+    private VoucherMapper voucherMapper;
+    @Resource
+    private BlogMapper blogMapper;
+
+    @Value("${hmdp.bloom.expected-insertions:1000000}")
+    private int expectedInsertions;
+
+    @Value("${hmdp.bloom.false-probability:0.001}")
+    private double falseProbability;
+
+    private final Map<String, Filter> filters = new ConcurrentHashMap<>();
+
+    // 缓存key前缀 -> 布隆过滤器key 供CacheClient按前缀查找
+    private static final Map<String, String> KEY_PREFIX_FILTERS = new HashMap<>();
+    static {
+        KEY_PREFIX_FILTERS.put(CACHE_SHOP_KEY, BLOOM_SHOP_KEY);
+        // 店铺的优惠券列表也以店铺id为key
+        KEY_PREFIX_FILTERS.put(CACHE_SHOP_VOUCHERS_KEY, BLOOM_SHOP_KEY);
+    }
+
+    private static class Filter {
+        private RBloomFilter<String> remote;
+        private BitSetBloomFilter local;
+        // 启动加载完成之前全部放行
+        private volatile boolean ready;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        load(BLOOM_SHOP_KEY, shopMapper);
+        load(BLOOM_USER_KEY, userMapper);
+        load(BLOOM_VOUCHER_KEY, voucherMapper);
+        load(BLOOM_BLOG_KEY, blogMapper);
+    }
+
+    /**
+     * 按缓存key前缀判断id是否可能存在 没有对应过滤器的前缀一律返回true
+     */
+    public boolean mightContainKey(String keyPrefix, Object id) {
+        String bloomKey = KEY_PREFIX_FILTERS.get(keyPrefix);
+        return bloomKey == null || mightContain(bloomKey, id);
+    }
+
+    /**
+     * 判断id是否可能存在
+     * @return false表示一定不存在
+     */
+    public boolean mightContain(String bloomKey, Object id) {
+        Filter filter = filters.get(bloomKey);
+        if (filter == null || !filter.ready || id == null) {
+            return true;
+        }
+        String value = id.toString();
+        // 1.本地镜像命中 直接放行
+        if (filter.local.contains(value)) {
+            return true;
+        }
+        // 2.本地没有 以Redis为准 Redis不可用时放行
+        try {
+            if (filter.remote.contains(value)) {
+                addLocal(filter, value);
+                return true;
+            }
+            return false;
+        } catch (Exception e) {
+            log.warn("布隆过滤器{}查询失败，放行：{}", bloomKey, e.getMessage());
+            return true;
+        }
+    }
+
+    /**
+     * 新增数据后登记id
+     */
+    public void add(String bloomKey, Object id) {
+        Filter filter = filters.get(bloomKey);
+        if (filter == null || id == null) {
+            return;
+        }
+        String value = id.toString();
+        addLocal(filter, value);
+        try {
+            filter.remote.add(value);
+        } catch (Exception e) {
+            log.error("布隆过滤器{}写入失败，id={}", bloomKey, value, e);
+        }
+    }
+
+    private <T> void load(String bloomKey, BaseMapper<T> mapper) {
+        Filter filter = new Filter();
+        filter.remote = redissonClient.getBloomFilter(bloomKey, StringCodec.INSTANCE);
+        filter.remote.tryInit(expectedInsertions, falseProbability);
+        // 每个元素10位 5个哈希函数 误判率约1%
+        filter.local = new BitSetBloomFilter(10, expectedInsertions, 5);
+        filters.put(bloomKey, filter);
+
+        // Redis中的过滤器已经被其它节点完整加载过 只需要加载本地镜像
+        String readyKey = bloomKey + ":ready";
+        boolean remoteReady = Boolean.TRUE.equals(stringRedisTemplate.hasKey(readyKey));
+
+        // 按主键分批读取 避免一次把整表加载进内存
+        long count = 0;
+        Object lastId = 0L;
+        while (true) {
+            List<Object> ids = mapper.selectObjs(new QueryWrapper<T>()
+                    .select("id")
+                    .gt("id", lastId)
+                    .orderByAsc("id")
+                    .last("limit " + LOAD_BATCH_SIZE));
+            for (Object id : ids) {
+                String value = id.toString();
+                addLocal(filter, value);
+                if (!remoteReady) {
+                    filter.remote.add(value);
+                }
+            }
+            count += ids.size();
+            if (ids.size() < LOAD_BATCH_SIZE) {
+                break;
+            }
+            lastId = ids.get(ids.size() - 1);
+        }
+        if (!remoteReady) {
+            stringRedisTemplate.opsForValue().set(readyKey, "1");
+        }
+        filter.ready = true;
+        log.info("布隆过滤器{}加载完成，共{}个id", bloomKey, count);
+    }
+
+    private void addLocal(Filter filter, String value) {
+        // BitSet不是线程安全的 写操作加锁
+        synchronized (filter.local) {
+            filter.local.add(value);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.jktt.utils;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * L1中存放的已反序列化对象 创建后不再修改
+ * 命中时直接返回value 不需要再解析json
+ */
+@Getter
+@AllArgsConstructor
+public class LocalCacheEntry {
+    // 没有逻辑过期时间（穿透缓存）
+    public static final long NEVER_EXPIRE = Long.MAX_VALUE;
+    // 空值 防止缓存穿透
+    public static final LocalCacheEntry NULL = new LocalCacheEntry(null, NEVER_EXPIRE, 1);
+
+    /**
+     * 缓存对象 为null表示命中空值
+     * 该对象在多个请求间共享 调用方不要修改
+     */
+    private final Object value;
+    /**
+     * 逻辑过期时间（毫秒时间戳）
+     */
+    private final long expireAtMillis;
+    /**
+     * 权重 取序列化后json的长度 用于按权重限制L1大小
+     */
+    private final int weight;
+
+    public static long toMillis(LocalDateTime time) {
+        // 逻辑过期时间缺失时视为已过期 交给重建逻辑处理
+        return time == null ? 0L : time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    public boolean isExpired() {
+        return expireAtMillis <= System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,133 @@
+package com.jktt.utils;
+
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * L1（Caffeine）的统一入口
+ * object模式：按类型各建一个Cache 存放反序列化好的对象和逻辑过期时间 按权重（json长度）限制大小
+ *   命中时返回的是共享的对象 不做复制 需要修改的调用方自己复制
+ * json模式：沿用localCache 存放json字符串 每次命中都要重新反序列化
+ */
+@Component
+public class LocalCacheManager {
+
+    @Resource
+    private Cache<String, String> localCache;
+
+    @Resource
+    private CacheMetrics cacheMetrics;
+
+    @Value("${hmdp.cache.local.mode:object}")
+    private String mode;
+
+    // 每种类型的L1最大权重 约等于缓存的json字符总数
+    @Value("${hmdp.cache.local.max-weight:16777216}")
+    private long maxWeight;
+
+    @Value("${hmdp.cache.local.expire-seconds:300}")
+    private long expireSeconds;
+
+    private final Map<Class<?>, Cache<String, LocalCacheEntry>> objectCaches = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        cacheMetrics.monitorCache(localCache, "l1:json");
+    }
+
+    public boolean isObjectMode() {
+        return "object".equalsIgnoreCase(mode);
+    }
+
+    /**
+     * 查询L1
+     * @param logical 缓存的是否是带逻辑过期时间的RedisData（json模式下用于决定如何解析）
+     * @return 未命中返回null 命中空值返回LocalCacheEntry.NULL
+     */
+    public LocalCacheEntry get(String key, Class<?> type, boolean logical) {
+        if (isObjectMode()) {
+            return objectCache(type).getIfPresent(key);
+        }
+        String json = localCache.getIfPresent(key);
+        if (json == null) {
+            return null;
+        }
+        if (StrUtil.isBlank(json)) {
+            return LocalCacheEntry.NULL;
+        }
+        if (!logical) {
+            return new LocalCacheEntry(JSONUtil.toBean(json, type), LocalCacheEntry.NEVER_EXPIRE, json.length());
+        }
+        RedisData redisData = JSONUtil.toBean(json, RedisData.class);
+        Object value = JSONUtil.toBean((JSONObject) redisData.getData(), type);
+        return new LocalCacheEntry(value, LocalCacheEntry.toMillis(redisData.getExpireTime()), json.length());
+    }
+
+    /**
+     * 写入L1
+     * @param json 写入Redis的原始json json模式下直接缓存它 object模式下用它的长度作为权重
+     */
+    public LocalCacheEntry put(String key, Class<?> type, Object value, long expireAtMillis, String json) {
+        LocalCacheEntry entry = new LocalCacheEntry(value, expireAtMillis, json.length());
+        if (isObjectMode()) {
+            objectCache(type).put(key, entry);
+        } else {
+            localCache.put(key, json);
+        }
+        return entry;
+    }
+
+    public void putNull(String key, Class<?> type) {
+        if (isObjectMode()) {
+            objectCache(type).put(key, LocalCacheEntry.NULL);
+        } else {
+            localCache.put(key, "");
+        }
+    }
+
+    public void invalidate(String key) {
+        localCache.invalidate(key);
+        // key里没有类型信息 类型数量很少 逐个删除
+        objectCaches.values().forEach(cache -> cache.invalidate(key));
+    }
+
+    public void invalidateAll(Iterable<String> keys) {
+        localCache.invalidateAll(keys);
+        objectCaches.values().forEach(cache -> cache.invalidateAll(keys));
+    }
+
+    public void invalidateAll() {
+        localCache.invalidateAll();
+        objectCaches.values().forEach(Cache::invalidateAll);
+    }
+
+    private Cache<String, LocalCacheEntry> objectCache(Class<?> type) {
+        // 先get 避免每次命中都走computeIfAbsent的加锁路径
+        Cache<String, LocalCacheEntry> cache = objectCaches.get(type);
+        if (cache != null) {
+            return cache;
+        }
+        return objectCaches.computeIfAbsent(type, t -> {
+            Cache<String, LocalCacheEntry> c = Caffeine.newBuilder()
+                    .maximumWeight(maxWeight)
+                    .weigher((String k, LocalCacheEntry v) -> v.getWeight())
+                    .expireAfterWrite(expireSeconds, TimeUnit.SECONDS)
+                    .recordStats()
+                    .build();
+            // 每种类型一个Cache 命中率、淘汰数按类型导出
+            cacheMetrics.monitorCache(c, "l1:" + t.getSimpleName());
+            return c;
+        });
+    }
+}
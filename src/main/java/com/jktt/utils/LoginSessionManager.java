@@ -0,0 +1,176 @@
+package com.jktt.utils;
+
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONUtil;
+import com.jktt.dto.UserDTO;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.jktt.utils.RedisConstants.LOGIN_USER_KEY;
+import static com.jktt.utils.RedisConstants.LOGIN_USER_TTL;
+
+/**
+ * 登录会话 token -> UserDTO
+ * Redis里仍然是 login:token:{token} 的Hash 各节点在L1里缓存解析好的UserDTO
+ * 1.L1中的会话带一个很短的本地过期时间 未过期时拦截器不访问Redis
+ * 2.本地过期后用一次pipeline同时HGETALL和EXPIRE 即每个token每隔local-ttl-seconds最多续期一次
+ * 3.登出时删除Redis中的Hash 并通过CacheInvalidationBus让其它节点删除L1
+ * signed模式下不在Redis保存会话 token本身是带签名的UserDTO和过期时间 登出时把令牌id加入TokenRevocationList
+ */
+@Component
+public class LoginSessionManager {
+
+    // HmacSHA256的密钥不短于摘要长度
+    private static final int MIN_SECRET_BYTES = 32;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private LocalCacheManager localCacheManager;
+
+    @Resource
+    private CacheInvalidationBus cacheInvalidationBus;
+
+    // 本地会话的有效时间 也是续期Redis TTL的间隔
+    @Value("${hmdp.login.local-ttl-seconds:30}")
+    private long localTtlSeconds;
+
+    @Resource
+    private TokenRevocationList tokenRevocationList;
+
+    // redis: 会话存Redis Hash signed: 无状态签名令牌
+    @Value("${hmdp.login.mode:redis}")
+    private String mode;
+
+    @Value("${hmdp.login.secret:}")
+    private String secret;
+
+    private SignedSessionToken signedSessionToken;
+
+    @PostConstruct
+    public void init() {
+        if (!isSignedMode()) {
+            return;
+        }
+        if (StrUtil.isBlank(secret)) {
+            throw new IllegalStateException("signed登录模式需要通过环境变量HMDP_LOGIN_SECRET配置签名密钥");
+        }
+        if (secret.getBytes(StandardCharsets.UTF_8).length < MIN_SECRET_BYTES) {
+            throw new IllegalStateException("签名密钥HMDP_LOGIN_SECRET不能少于" + MIN_SECRET_BYTES + "字节");
+        }
+        signedSessionToken = new SignedSessionToken(secret);
+    }
+
+    public boolean isSignedMode() {
+        return "signed".equalsIgnoreCase(mode);
+    }
+
+    /**
+     * 创建会话
+     * @return token
+     */
+    public String create(UserDTO userDTO) {
+        // 随机生成token 作为登录令牌
+        String token = UUID.randomUUID().toString(true);
+        if (isSignedMode()) {
+            SignedSessionToken.Claims claims = new SignedSessionToken.Claims();
+            claims.setId(userDTO.getId());
+            claims.setNickName(userDTO.getNickName());
+            claims.setIcon(userDTO.getIcon());
+            claims.setExp(System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(LOGIN_USER_TTL));
+            claims.setJti(token);
+            return signedSessionToken.sign(claims);
+        }
+        // 将user对象转为Hash存储
+        Map<String, Object> userMap = BeanUtil.beanToMap(userDTO);
+        Map<String, String> stringMap = new HashMap<>();
+        userMap.forEach((key, value) -> stringMap.put(key, value.toString()));
+
+        String tokenKey = LOGIN_USER_KEY + token;
+        stringRedisTemplate.opsForHash().putAll(tokenKey, stringMap);
+        stringRedisTemplate.expire(tokenKey, LOGIN_USER_TTL, TimeUnit.MINUTES);
+        putLocal(tokenKey, userDTO);
+        return token;
+    }
+
+    /**
+     * 根据token获取登录用户
+     * @return 会话不存在返回null 返回的对象在请求间共享 不要修改
+     */
+    public UserDTO get(String token) {
+        if (isSignedMode()) {
+            // 本地校验签名和过期时间 再查本地的吊销列表
+            SignedSessionToken.Claims claims = signedSessionToken.verify(token);
+            if (claims == null || tokenRevocationList.isRevoked(claims.getJti())) {
+                return null;
+            }
+            return claims.toUserDTO();
+        }
+        String tokenKey = LOGIN_USER_KEY + token;
+        LocalCacheEntry local = localCacheManager.get(tokenKey, UserDTO.class, true);
+        if (local != null && !local.isExpired()) {
+            return (UserDTO) local.getValue();
+        }
+
+        // 本地没有或已过期 读取会话的同时刷新token有效期 一次往返
+        List<Object> results = stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object execute(RedisOperations operations) throws DataAccessException {
+                operations.opsForHash().entries(tokenKey);
+                operations.expire(tokenKey, LOGIN_USER_TTL, TimeUnit.MINUTES);
+                return null;
+            }
+        });
+        Map<?, ?> userMap = (Map<?, ?>) results.get(0);
+        if (userMap == null || userMap.isEmpty()) {
+            localCacheManager.invalidate(tokenKey);
+            return null;
+        }
+        UserDTO userDTO = BeanUtil.fillBeanWithMap(userMap, new UserDTO(), false);
+        putLocal(tokenKey, userDTO);
+        return userDTO;
+    }
+
+    /**
+     * 删除会话（登出/吊销）
+     */
+    public void remove(String token) {
+        if (isSignedMode()) {
+            SignedSessionToken.Claims claims = signedSessionToken.verify(token);
+            if (claims != null) {
+                tokenRevocationList.revoke(claims.getJti(), claims.getExp());
+            }
+            return;
+        }
+        String tokenKey = LOGIN_USER_KEY + token;
+        stringRedisTemplate.delete(tokenKey);
+        localCacheManager.invalidate(tokenKey);
+        cacheInvalidationBus.publish(tokenKey);
+    }
+
+    private void putLocal(String tokenKey, UserDTO userDTO) {
+        // 按逻辑过期结构存放 json模式下也能取到本地过期时间
+        RedisData redisData = new RedisData();
+        redisData.setData(userDTO);
+        redisData.setExpireTime(LocalDateTime.now().plusSeconds(localTtlSeconds));
+        localCacheManager.put(tokenKey, UserDTO.class, userDTO,
+                LocalCacheEntry.toMillis(redisData.getExpireTime()), JSONUtil.toJsonStr(redisData));
+    }
+}
@@ -0,0 +1,120 @@
+package com.jktt.utils;
+
+import cn.hutool.core.lang.UUID;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.admin.AdminClient;
+import org.apache.kafka.clients.admin.ListOffsetsResult;
+import org.apache.kafka.clients.admin.OffsetSpec;
+import org.apache.kafka.clients.admin.TopicDescription;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.kafka.core.KafkaAdmin;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.jktt.utils.RedisConstants.SECKILL_OUTBOX_PENDING_KEY;
+import static com.jktt.utils.SystemConstants.SECKILL_ORDER_GROUP;
+import static com.jktt.utils.SystemConstants.SECKILL_ORDER_TOPIC;
+
+/**
+ * 秒杀订单是否还有在途的 用于库存重建和秒杀收尾前确认数据库中的库存和订单已经完整
+ * 1.各节点定时把本地发件箱是否有未发送的订单登记到Redis Hash seckill:outbox:pending nodeId -> 登记的过期时间
+ *   节点宕机后登记过期 它的发件箱在重启后才会继续发送 这部分由reconcile-delay兜底
+ * 2.订单消费组在订单topic上的积压用AdminClient查询 已提交位移追上最新位移才算消费完
+ */
+@Slf4j
+@Component
+public class OrderBacklog {
+
+    private static final String NODE_ID = UUID.randomUUID().toString(true);
+    // 登记的有效期是上报周期的倍数 漏掉一两次上报不会误判
+    private static final int REPORT_TTL_PERIODS = 3;
+    private static final long ADMIN_TIMEOUT_SECONDS = 10L;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private OrderOutbox orderOutbox;
+
+    @Resource
+    private KafkaAdmin kafkaAdmin;
+
+    @Value("${hmdp.seckill.schedule.interval-ms:10000}")
+    private long intervalMillis;
+
+    @Scheduled(fixedDelayString = "${hmdp.seckill.schedule.interval-ms:10000}")
+    public void report() {
+        if (orderOutbox.isPending()) {
+            long expireAt = System.currentTimeMillis() + intervalMillis * REPORT_TTL_PERIODS;
+            stringRedisTemplate.opsForHash().put(SECKILL_OUTBOX_PENDING_KEY, NODE_ID, String.valueOf(expireAt));
+        } else {
+            stringRedisTemplate.opsForHash().delete(SECKILL_OUTBOX_PENDING_KEY, NODE_ID);
+        }
+    }
+
+    /**
+     * 所有节点的发件箱都已发送完 并且消费组没有积压
+     * 查询失败时返回false 调用方下次再试
+     */
+    public boolean isDrained() {
+        if (orderOutbox.isPending()) {
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        Map<Object, Object> pending = stringRedisTemplate.opsForHash().entries(SECKILL_OUTBOX_PENDING_KEY);
+        for (Map.Entry<Object, Object> entry : pending.entrySet()) {
+            if (Long.parseLong(entry.getValue().toString()) > now) {
+                return false;
+            }
+            stringRedisTemplate.opsForHash().delete(SECKILL_OUTBOX_PENDING_KEY, entry.getKey());
+        }
+        try {
+            long lag = consumerLag();
+            if (lag > 0) {
+                log.info("订单消费组还有{}条积压", lag);
+            }
+            return lag == 0;
+        } catch (Exception e) {
+            log.warn("查询订单消费组积压失败：{}", e.getMessage());
+            return false;
+        }
+    }
+
+    private long consumerLag() throws Exception {
+        try (AdminClient admin = AdminClient.create(kafkaAdmin.getConfigurationProperties())) {
+            // 1.订单topic的全部分区的最新位移
+            TopicDescription topic = admin.describeTopics(Collections.singletonList(SECKILL_ORDER_TOPIC))
+                    .all().get(ADMIN_TIMEOUT_SECONDS, TimeUnit.SECONDS).get(SECKILL_ORDER_TOPIC);
+            Map<TopicPartition, OffsetSpec> latest = new HashMap<>();
+            Map<TopicPartition, OffsetSpec> earliest = new HashMap<>();
+            topic.partitions().forEach(p -> {
+                TopicPartition partition = new TopicPartition(SECKILL_ORDER_TOPIC, p.partition());
+                latest.put(partition, OffsetSpec.latest());
+                earliest.put(partition, OffsetSpec.earliest());
+            });
+            Map<TopicPartition, ListOffsetsResult.ListOffsetsResultInfo> ends = admin.listOffsets(latest)
+                    .all().get(ADMIN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            Map<TopicPartition, ListOffsetsResult.ListOffsetsResultInfo> starts = admin.listOffsets(earliest)
+                    .all().get(ADMIN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            // 2.消费组已提交的位移 没有提交过或者已经过期删除的从分区最早的位移算
+            Map<TopicPartition, OffsetAndMetadata> committed = admin.listConsumerGroupOffsets(SECKILL_ORDER_GROUP)
+                    .partitionsToOffsetAndMetadata().get(ADMIN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            long lag = 0;
+            for (Map.Entry<TopicPartition, ListOffsetsResult.ListOffsetsResultInfo> end : ends.entrySet()) {
+                long start = starts.get(end.getKey()).offset();
+                OffsetAndMetadata offset = committed.get(end.getKey());
+                lag += end.getValue().offset() - (offset == null ? start : Math.max(start, offset.offset()));
+            }
+            return lag;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.jktt.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.*;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.stereotype.Component;
+import org.springframework.util.concurrent.ListenableFuture;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import static com.jktt.utils.SystemConstants.SECKILL_ORDER_DLQ_TOPIC;
+import static com.jktt.utils.SystemConstants.SECKILL_ORDER_TOPIC;
+
+/**
+ * 秒杀订单的死信队列
+ * 1.无法发送的订单（记录过大等）和消费时无法入库的订单（数据库库存不足、异常）写入死信topic 原因放在reason头里
+ * 2.问题处理后用replay把死信重新发送到订单topic 独立的消费组读取 发送成功后才提交位移
+ */
+@Slf4j
+@Component
+public class OrderDeadLetterQueue {
+
+    public static final String REASON_HEADER = "reason";
+    private static final String REPLAY_GROUP = "voucher-order-dlq-replay";
+    private static final Duration POLL_TIMEOUT = Duration.ofSeconds(1);
+    // 连续几次poll不到消息认为已经读完 第一次poll还要等待加入消费组
+    private static final int MAX_EMPTY_POLLS = 5;
+
+    @Resource
+    private KafkaTemplate<String, String> kafkaTemplate;
+
+    @Resource
+    private ConsumerFactory<String, String> kafkaConsumerFactory;
+
+    @Value("${hmdp.seckill.outbox.send-timeout-ms:10000}")
+    private long sendTimeoutMillis;
+
+    /**
+     * 异步写入死信队列
+     */
+    public ListenableFuture<SendResult<String, String>> send(String payload, String reason) {
+        ProducerRecord<String, String> record = new ProducerRecord<>(SECKILL_ORDER_DLQ_TOPIC, payload);
+        record.headers().add(REASON_HEADER, String.valueOf(reason).getBytes(StandardCharsets.UTF_8));
+        return kafkaTemplate.send(record);
+    }
+
+    /**
+     * 同步写入死信队列 写入失败时把订单打到错误日志 供人工恢复
+     */
+    public void publish(String payload, String reason) {
+        try {
+            send(payload, reason).get(sendTimeoutMillis, TimeUnit.MILLISECONDS);
+            log.warn("订单已转入死信队列：{} 原因：{}", payload, reason);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.error("写入死信队列被中断 订单需要人工处理：{} 原因：{}", payload, reason);
+        } catch (Exception e) {
+            log.error("写入死信队列失败 订单需要人工处理：" + payload + " 原因：" + reason, e);
+        }
+    }
+
+    /**
+     * 把死信重新发送到订单topic 中途失败时已发送的部分会提交 下次从失败的位置继续
+     * @param max 最多重放的条数
+     * @return 重放的条数
+     */
+    public synchronized int replay(int max) {
+        Properties overrides = new Properties();
+        overrides.setProperty(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, "false");
+        overrides.setProperty(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
+        overrides.setProperty(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, String.valueOf(Math.min(max, 500)));
+        int replayed = 0;
+        try (Consumer<String, String> consumer = kafkaConsumerFactory.createConsumer(REPLAY_GROUP, null, null, overrides)) {
+            consumer.subscribe(Collections.singletonList(SECKILL_ORDER_DLQ_TOPIC));
+            int emptyPolls = 0;
+            while (replayed < max && emptyPolls < MAX_EMPTY_POLLS) {
+                ConsumerRecords<String, String> records = consumer.poll(POLL_TIMEOUT);
+                if (records.isEmpty()) {
+                    emptyPolls++;
+                    continue;
+                }
+                emptyPolls = 0;
+                Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+                try {
+                    for (ConsumerRecord<String, String> record : records) {
+                        if (replayed >= max) {
+                            break;
+                        }
+                        kafkaTemplate.send(SECKILL_ORDER_TOPIC, record.value()).get(sendTimeoutMillis, TimeUnit.MILLISECONDS);
+                        offsets.put(new TopicPartition(record.topic(), record.partition()), new OffsetAndMetadata(record.offset() + 1));
+                        replayed++;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("重放死信被中断 已重放" + replayed + "条");
+                } catch (Exception e) {
+                    throw new IllegalStateException("重放死信失败 已重放" + replayed + "条：" + e.getMessage(), e);
+                } finally {
+                    if (!offsets.isEmpty()) {
+                        consumer.commitSync(offsets);
+                    }
+                }
+            }
+        }
+        log.info("死信队列重放完成 共{}条", replayed);
+        return replayed;
+    }
+}
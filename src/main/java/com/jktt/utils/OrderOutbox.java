@@ -0,0 +1,314 @@
+package com.jktt.utils;
+
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * 秒杀订单的本地发件箱 追加写的内存映射日志
+ * 1.下单成功后先把订单追加到日志再返回订单id 只写内存映射的页缓存 不访问网络
+ *   进程崩溃时页缓存由操作系统写回磁盘 不会丢单 机器掉电的保护取决于force的频率
+ * 2.日志按segment-bytes切成多个段文件 每条记录是 [长度][CRC32][订单json]
+ *   长度为0表示后面还没有写入 长度为-1表示本段结束 下一条在下一个段的开头
+ * 3.OrderOutboxRelay顺序读取、批量发送到Kafka 确认后推进checkpoint 之前的段文件删除
+ *   重启后从checkpoint开始重发 之后的记录可能重复投递 由订单主键去重
+ * 位置用一个long表示 高32位是段号 低32位是段内偏移 可以直接比较先后
+ */
+@Slf4j
+@Component
+public class OrderOutbox {
+
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+    private static final String LOCK_FILE = "lock";
+    // 长度 + CRC32
+    private static final int HEADER_BYTES = 8;
+    private static final int END_OF_SEGMENT = -1;
+
+    @Value("${hmdp.seckill.outbox.dir:data/outbox}")
+    private String dir;
+
+    // 单个段文件的大小 创建时一次映射整个文件
+    @Value("${hmdp.seckill.outbox.segment-bytes:67108864}")
+    private int segmentBytes;
+
+    private Path directory;
+    private FileChannel lockChannel;
+    private FileLock fileLock;
+    private MappedByteBuffer checkpointBuffer;
+
+    // 段号 -> 映射的段文件 写线程新增 发送线程确认后删除
+    private final ConcurrentSkipListMap<Long, MappedByteBuffer> segments = new ConcurrentSkipListMap<>();
+
+    // 写位置 只在append的锁内修改
+    private long writeSegment;
+    private int writeOffset;
+    // 已经完整写入的位置 发送线程只读到这里
+    private volatile long published;
+    private volatile long checkpoint;
+
+    @PostConstruct
+    public void open() throws IOException {
+        directory = Paths.get(dir).toAbsolutePath();
+        Files.createDirectories(directory);
+        // 同一个目录只能被一个进程使用
+        lockChannel = FileChannel.open(directory.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        fileLock = lockChannel.tryLock();
+        if (fileLock == null) {
+            throw new IllegalStateException("订单发件箱目录已被其它进程占用：" + directory);
+        }
+        checkpointBuffer = map(directory.resolve(CHECKPOINT_FILE), Long.BYTES);
+        checkpoint = checkpointBuffer.getLong(0);
+
+        // 1.checkpoint之前的段已经全部发送
+        TreeMap<Long, Path> files = listSegments();
+        for (Map.Entry<Long, Path> file : files.entrySet()) {
+            if (file.getKey() < segmentOf(checkpoint)) {
+                Files.deleteIfExists(file.getValue());
+            } else {
+                segments.put(file.getKey(), map(file.getValue(), segmentBytes));
+            }
+        }
+        // 2.从最后一个段的开头找到写位置 崩溃时写了一半的记录CRC校验不通过 从它开始覆盖
+        if (segments.isEmpty()) {
+            // checkpoint所在的段已经不存在时从下一个段开始
+            writeSegment = segmentOf(checkpoint) + (offsetOf(checkpoint) > 0 ? 1 : 0);
+            segments.put(writeSegment, map(segmentPath(writeSegment), segmentBytes));
+            writeOffset = 0;
+        } else {
+            writeSegment = segments.lastKey();
+            writeOffset = recover(segments.get(writeSegment));
+        }
+        published = position(writeSegment, writeOffset);
+        if (segments.firstKey() > segmentOf(checkpoint)) {
+            commit(position(segments.firstKey(), 0));
+        }
+        log.info("订单发件箱已打开 {} 未发送的位置 {} -> {}", directory, format(checkpoint), format(published));
+    }
+
+    /**
+     * 追加一条订单 返回后订单已经在页缓存中
+     */
+    public synchronized void append(String payload) throws IOException {
+        byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+        int size = HEADER_BYTES + bytes.length;
+        // 段尾始终留出写结束标记的4个字节
+        if (size + Integer.BYTES > segmentBytes) {
+            throw new IllegalArgumentException("订单记录超过段文件大小：" + size);
+        }
+        if (writeOffset + size + Integer.BYTES > segmentBytes) {
+            roll();
+        }
+        MappedByteBuffer buffer = segments.get(writeSegment);
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        ByteBuffer body = buffer.duplicate();
+        ((Buffer) body).position(writeOffset + HEADER_BYTES);
+        body.put(bytes);
+        buffer.putInt(writeOffset + Integer.BYTES, (int) crc.getValue());
+        // 长度最后写 记录写完整之前读到的长度是0
+        buffer.putInt(writeOffset, bytes.length);
+        writeOffset += size;
+        published = position(writeSegment, writeOffset);
+    }
+
+    /**
+     * 从from开始读取最多max条已写入的记录
+     */
+    public Batch read(long from, int max) {
+        long limit = published;
+        List<String> payloads = new ArrayList<>(Math.min(max, 1024));
+        long pos = from;
+        while (payloads.size() < max && pos < limit) {
+            MappedByteBuffer buffer = segments.get(segmentOf(pos));
+            int offset = offsetOf(pos);
+            int length = buffer.getInt(offset);
+            if (length <= 0 || offset + HEADER_BYTES + length > segmentBytes) {
+                // 段结束 或者切换段时崩溃没来得及写结束标记
+                if (segmentOf(pos) >= segmentOf(limit)) {
+                    break;
+                }
+                pos = position(segmentOf(pos) + 1, 0);
+                continue;
+            }
+            byte[] bytes = new byte[length];
+            ByteBuffer body = buffer.duplicate();
+            ((Buffer) body).position(offset + HEADER_BYTES);
+            body.get(bytes);
+            payloads.add(new String(bytes, StandardCharsets.UTF_8));
+            pos = position(segmentOf(pos), offset + HEADER_BYTES + length);
+        }
+        Batch batch = new Batch();
+        batch.setPayloads(payloads);
+        batch.setEnd(pos);
+        return batch;
+    }
+
+    /**
+     * 确认end之前的记录都已发送 写入checkpoint并删除已经发送完的段
+     */
+    public void commit(long end) {
+        checkpointBuffer.putLong(0, end);
+        checkpoint = end;
+        long segment = segmentOf(end);
+        for (Long old : new ArrayList<>(segments.keySet())) {
+            if (old >= segment) {
+                break;
+            }
+            // 映射在GC时释放 Linux下删除已映射的文件不影响
+            segments.remove(old);
+            try {
+                Files.deleteIfExists(segmentPath(old));
+            } catch (IOException e) {
+                log.warn("删除已发送的发件箱段文件失败 {}：{}", segmentPath(old), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 把已写入的数据刷到磁盘 防止机器掉电丢失
+     */
+    public void force() {
+        for (MappedByteBuffer buffer : segments.values()) {
+            buffer.force();
+        }
+        checkpointBuffer.force();
+    }
+
+    /**
+     * 是否还有没发送到Kafka的订单
+     */
+    public boolean isPending() {
+        return published != checkpoint;
+    }
+
+    public long checkpoint() {
+        return checkpoint;
+    }
+
+    public long published() {
+        return published;
+    }
+
+    /**
+     * 未发送的段文件数 包括正在写的段
+     */
+    public int segmentCount() {
+        return segments.size();
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        force();
+        fileLock.release();
+        lockChannel.close();
+    }
+
+    /**
+     * 当前段写满 写结束标记后切换到下一个段
+     */
+    private void roll() throws IOException {
+        long next = writeSegment + 1;
+        MappedByteBuffer buffer = map(segmentPath(next), segmentBytes);
+        segments.get(writeSegment).putInt(writeOffset, END_OF_SEGMENT);
+        segments.put(next, buffer);
+        writeSegment = next;
+        writeOffset = 0;
+    }
+
+    /**
+     * 逐条校验CRC 返回第一条未写完整的记录的偏移
+     */
+    private int recover(MappedByteBuffer buffer) {
+        int offset = 0;
+        while (offset + HEADER_BYTES <= segmentBytes) {
+            int length = buffer.getInt(offset);
+            if (length <= 0 || offset + HEADER_BYTES + length + Integer.BYTES > segmentBytes) {
+                break;
+            }
+            byte[] bytes = new byte[length];
+            ByteBuffer body = buffer.duplicate();
+            ((Buffer) body).position(offset + HEADER_BYTES);
+            body.get(bytes);
+            CRC32 crc = new CRC32();
+            crc.update(bytes, 0, length);
+            if ((int) crc.getValue() != buffer.getInt(offset + Integer.BYTES)) {
+                log.warn("订单发件箱 {} 偏移{}处的记录不完整 从这里继续写入", segmentPath(writeSegment), offset);
+                break;
+            }
+            offset += HEADER_BYTES + length;
+        }
+        return offset;
+    }
+
+    private TreeMap<Long, Path> listSegments() throws IOException {
+        TreeMap<Long, Path> files = new TreeMap<>();
+        try (Stream<Path> stream = Files.list(directory)) {
+            stream.forEach(path -> {
+                String name = path.getFileName().toString();
+                if (name.endsWith(SEGMENT_SUFFIX)) {
+                    try {
+                        files.put(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())), path);
+                    } catch (NumberFormatException ignored) {
+                        // 不是段文件
+                    }
+                }
+            });
+        }
+        return files;
+    }
+
+    private Path segmentPath(long segment) {
+        return directory.resolve(String.format("%020d%s", segment, SEGMENT_SUFFIX));
+    }
+
+    private static MappedByteBuffer map(Path path, int size) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            // 映射在通道关闭后仍然有效
+            return file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    private static long position(long segment, int offset) {
+        return segment << 32 | offset;
+    }
+
+    private static long segmentOf(long position) {
+        return position >>> 32;
+    }
+
+    private static int offsetOf(long position) {
+        return (int) position;
+    }
+
+    public static String format(long position) {
+        return segmentOf(position) + ":" + offsetOf(position);
+    }
+
+    @Data
+    public static class Batch {
+        private List<String> payloads;
+        // 最后一条之后的位置 全部发送后提交这个位置
+        private long end;
+    }
+}
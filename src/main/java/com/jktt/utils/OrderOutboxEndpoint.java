@@ -0,0 +1,51 @@
+package com.jktt.utils;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 秒杀订单投递的运维端点
+ * GET  /actuator/orderoutbox 查看发件箱的发送进度
+ * POST /actuator/orderoutbox {"max": 1000} 把死信队列中的订单重新发送到订单topic
+ * 默认不暴露 需要时在management.endpoints.web.exposure.include中加上orderoutbox
+ * actuator只监听management.server的内部端口和地址 不经过业务端口的登录拦截器
+ */
+@Component
+@Endpoint(id = "orderoutbox")
+public class OrderOutboxEndpoint {
+
+    private static final int DEFAULT_REPLAY_SIZE = 1000;
+
+    @Resource
+    private OrderOutbox orderOutbox;
+
+    @Resource
+    private OrderDeadLetterQueue orderDeadLetterQueue;
+
+    @ReadOperation
+    public Map<String, Object> status() {
+        long checkpoint = orderOutbox.checkpoint();
+        long published = orderOutbox.published();
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("checkpoint", OrderOutbox.format(checkpoint));
+        status.put("published", OrderOutbox.format(published));
+        status.put("pending", orderOutbox.isPending());
+        status.put("segments", orderOutbox.segmentCount());
+        return status;
+    }
+
+    @WriteOperation
+    public Map<String, Object> replay(@Nullable Integer max) {
+        int replayed = orderDeadLetterQueue.replay(max == null || max <= 0 ? DEFAULT_REPLAY_SIZE : max);
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("replayed", replayed);
+        return result;
+    }
+}
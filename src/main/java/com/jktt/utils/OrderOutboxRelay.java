@@ -0,0 +1,237 @@
+package com.jktt.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.common.errors.RecordBatchTooLargeException;
+import org.apache.kafka.common.errors.RecordTooLargeException;
+import org.apache.kafka.common.errors.SerializationException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.stereotype.Component;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.SettableListenableFuture;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+import static com.jktt.utils.SystemConstants.SECKILL_ORDER_TOPIC;
+
+/**
+ * 把发件箱中的订单发送到Kafka 单线程顺序读取
+ * 1.每批最多batch-size条一起发送 等待全部确认后才提交checkpoint 下单线程不等待Kafka
+ * 2.Broker不可用、超时等错误退避后一直重试 订单留在发件箱不会丢失
+ * 3.只有记录本身的错误（过大、序列化失败）永远不会成功 这些订单转入死信队列
+ */
+@Slf4j
+@Component
+public class OrderOutboxRelay implements SmartLifecycle {
+
+    @Resource
+    private OrderOutbox orderOutbox;
+
+    @Resource
+    private OrderDeadLetterQueue orderDeadLetterQueue;
+
+    @Resource
+    private KafkaTemplate<String, String> kafkaTemplate;
+
+    @Value("${hmdp.seckill.outbox.batch-size:500}")
+    private int batchSize;
+
+    // 发件箱为空时等待多久再读
+    @Value("${hmdp.seckill.outbox.linger-ms:5}")
+    private long lingerMillis;
+
+    // 一批订单等待确认的最长时间 超时的订单重发
+    @Value("${hmdp.seckill.outbox.send-timeout-ms:10000}")
+    private long sendTimeoutMillis;
+
+    @Value("${hmdp.seckill.outbox.retry-backoff-ms:100}")
+    private long retryBackoffMillis;
+
+    @Value("${hmdp.seckill.outbox.max-backoff-ms:5000}")
+    private long maxBackoffMillis;
+
+    // 多久把发件箱刷到磁盘一次 0表示只依赖操作系统写回
+    @Value("${hmdp.seckill.outbox.force-interval-ms:1000}")
+    private long forceIntervalMillis;
+
+    private volatile boolean running = false;
+    private Thread worker;
+    private long lastForceMillis = System.currentTimeMillis();
+
+    @Override
+    public void start() {
+        running = true;
+        worker = new Thread(this::relay, "order-outbox-relay");
+        // 停止时等待超时也不阻止进程退出 未确认的订单下次启动时重发
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        LockSupport.unpark(worker);
+        try {
+            worker.join(sendTimeoutMillis + maxBackoffMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        orderOutbox.force();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    private void relay() {
+        long cursor = orderOutbox.checkpoint();
+        while (running) {
+            try {
+                forceIfDue();
+                OrderOutbox.Batch batch = orderOutbox.read(cursor, batchSize);
+                List<String> payloads = batch.getPayloads();
+                if (!payloads.isEmpty() && !deliver(payloads)) {
+                    // 重试期间被停止 这批订单下次启动时重发
+                    return;
+                }
+                if (batch.getEnd() != cursor) {
+                    orderOutbox.commit(batch.getEnd());
+                    cursor = batch.getEnd();
+                }
+                if (payloads.isEmpty()) {
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(lingerMillis));
+                }
+            } catch (Exception e) {
+                log.error("订单发件箱发送异常 " + retryBackoffMillis + "ms后重试", e);
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(retryBackoffMillis));
+            }
+        }
+    }
+
+    /**
+     * 发送一批订单 直到全部进入订单topic或死信队列
+     * @return false表示重试期间被停止
+     */
+    private boolean deliver(List<String> payloads) throws InterruptedException {
+        List<String> pending = payloads;
+        long backoff = retryBackoffMillis;
+        while (true) {
+            // 1.整批发送 生产者内部会合并成少量请求
+            List<ListenableFuture<SendResult<String, String>>> futures = new ArrayList<>(pending.size());
+            for (String payload : pending) {
+                futures.add(send(() -> kafkaTemplate.send(SECKILL_ORDER_TOPIC, payload)));
+            }
+            List<Throwable> errors = await(futures);
+
+            // 2.记录本身的错误转入死信队列 其余的重试
+            List<String> retry = new ArrayList<>();
+            List<String> rejected = new ArrayList<>();
+            List<ListenableFuture<SendResult<String, String>>> deadLetters = new ArrayList<>();
+            Throwable lastError = null;
+            for (int i = 0; i < pending.size(); i++) {
+                Throwable error = errors.get(i);
+                if (error == null) {
+                    continue;
+                }
+                String payload = pending.get(i);
+                Throwable recordError = recordError(error);
+                if (recordError != null) {
+                    String reason = recordError.getClass().getSimpleName() + ": " + recordError.getMessage();
+                    rejected.add(payload);
+                    deadLetters.add(send(() -> orderDeadLetterQueue.send(payload, reason)));
+                } else {
+                    retry.add(payload);
+                    lastError = error;
+                }
+            }
+            List<Throwable> deadLetterErrors = await(deadLetters);
+            for (int i = 0; i < rejected.size(); i++) {
+                Throwable error = deadLetterErrors.get(i);
+                if (error == null) {
+                    log.warn("订单无法发送 已转入死信队列：{}", rejected.get(i));
+                } else if (recordError(error) != null) {
+                    log.error("订单无法发送也无法写入死信队列 需要人工处理：" + rejected.get(i), error);
+                } else {
+                    retry.add(rejected.get(i));
+                    lastError = error;
+                }
+            }
+            if (retry.isEmpty()) {
+                return true;
+            }
+
+            // 3.退避后重试失败的订单
+            log.warn("{}条订单发送失败 {}ms后重试：{}", retry.size(), backoff, lastError.getMessage());
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(backoff));
+            if (!running) {
+                return false;
+            }
+            forceIfDue();
+            backoff = Math.min(backoff * 2, maxBackoffMillis);
+            pending = retry;
+        }
+    }
+
+    /**
+     * 等待一批发送结果 与futures一一对应 成功的位置为null
+     */
+    private List<Throwable> await(List<ListenableFuture<SendResult<String, String>>> futures) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(sendTimeoutMillis);
+        List<Throwable> errors = new ArrayList<>(futures.size());
+        for (ListenableFuture<SendResult<String, String>> future : futures) {
+            try {
+                future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                errors.add(null);
+            } catch (ExecutionException e) {
+                errors.add(e.getCause());
+            } catch (TimeoutException e) {
+                errors.add(e);
+            }
+        }
+        return errors;
+    }
+
+    /**
+     * send本身抛出的异常（如等待元数据超时）也转成失败的future
+     */
+    private static ListenableFuture<SendResult<String, String>> send(Supplier<ListenableFuture<SendResult<String, String>>> sender) {
+        try {
+            return sender.get();
+        } catch (Exception e) {
+            SettableListenableFuture<SendResult<String, String>> failed = new SettableListenableFuture<>();
+            failed.setException(e);
+            return failed;
+        }
+    }
+
+    /**
+     * 重试也不会成功的错误 不是时返回null
+     */
+    private static Throwable recordError(Throwable error) {
+        for (Throwable e = error; e != null; e = e.getCause()) {
+            if (e instanceof RecordTooLargeException || e instanceof RecordBatchTooLargeException
+                    || e instanceof SerializationException) {
+                return e;
+            }
+        }
+        return null;
+    }
+
+    private void forceIfDue() {
+        long now = System.currentTimeMillis();
+        if (forceIntervalMillis > 0 && now - lastForceMillis >= forceIntervalMillis) {
+            orderOutbox.force();
+            lastForceMillis = now;
+        }
+    }
+}
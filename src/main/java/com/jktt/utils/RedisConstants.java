@@ -5,6 +5,7 @@ public class RedisConstants {
     public static final Long LOGIN_CODE_TTL = 2L;
     public static final String LOGIN_USER_KEY = "login:token:";
     public static final Long LOGIN_USER_TTL = 36000L;
+    public static final String LOGIN_REVOKED_KEY = "login:revoked";
 
     public static final Long CACHE_NULL_TTL = 2L;
 
@@ -12,13 +13,42 @@ public class RedisConstants {
     public static final String CACHE_SHOP_KEY = "cache:shop:";
     public static final Long CACHE_SHOP_TYPE_TTL = 30L;
     public static final String CACHE_SHOP_TYPE_KEY = "cache:shopType";
+    public static final String CACHE_USER_KEY = "cache:user:";
+    public static final Long CACHE_SHOP_VOUCHERS_TTL = 30L;
+    public static final String CACHE_SHOP_VOUCHERS_KEY = "cache:voucher:shop:";
+
+    public static final String CACHE_INVALIDATE_CHANNEL = "cache:invalidate";
 
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
+    public static final String LOCK_BLOG_HOT_KEY = "lock:blog:hot";
+    public static final String LOCK_BLOG_LIKED_FLUSH_KEY = "lock:blog:liked:flush";
+    public static final String LOCK_SIGN_ARCHIVE_KEY = "lock:sign:archive";
+    public static final String LOCK_SECKILL_SCHEDULE_KEY = "lock:seckill:schedule";
+
+    public static final String BLOOM_SHOP_KEY = "bloom:shop";
+    public static final String BLOOM_USER_KEY = "bloom:user";
+    public static final String BLOOM_VOUCHER_KEY = "bloom:voucher";
+    public static final String BLOOM_BLOG_KEY = "bloom:blog";
 
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    public static final String SECKILL_ORDER_KEY = "seckill:order:";
+    public static final String SECKILL_SHARDS_KEY = "seckill:shards:";
+    public static final String SECKILL_SETTLED_KEY = "seckill:settled:";
+    public static final String SECKILL_OUTBOX_PENDING_KEY = "seckill:outbox:pending";
+    public static final String SECKILL_SOLD_OUT_CHANNEL = "seckill:soldout";
     public static final String BLOG_LIKED_KEY = "blog:liked:";
+    public static final String BLOG_LIKED_DELTA_KEY = "blog:liked:delta";
+    public static final String BLOG_LIKED_FLUSHING_KEY = "blog:liked:delta:flushing";
+    public static final String BLOG_LIKED_FLUSH_ID_KEY = "blog:liked:delta:flushing:id";
+    public static final String BLOG_HOT_KEY = "blog:hot";
+    public static final String FOLLOWS_KEY = "follows:";
+    public static final String FOLLOWS_VERSION_KEY = "follows:version:";
+    public static final String FOLLOWS_LOADING_KEY = "follows:loading:";
     public static final String FEED_KEY = "feed:";
+    public static final String FEED_OUTBOX_KEY = "feed:outbox:";
+    public static final String FEED_PULL_AUTHORS_KEY = "feed:pull:authors";
     public static final String SHOP_GEO_KEY = "shop:geo:";
+    public static final String SHOP_GEO_READY_KEY = "shop:geo:ready";
     public static final String USER_SIGN_KEY = "sign:";
 }
@@ -1,37 +1,203 @@
 package com.jktt.utils;
 
+import cn.hutool.core.thread.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.Resource;
-import java.time.LocalDateTime;
-import java.time.ZoneOffset;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 
+@Slf4j
 @Component
 public class RedisIdWorker {
     // 开始时间 2023-9-3-0:00
     private static final long BEGIN_TIMESTAMP = 1693612800L;
     // 序列号的位数
     private static final int COUNT_BITS = 32;
+    private static final long SECONDS_PER_DAY = 86400L;
+    private static final DateTimeFormatter DAY_FORMATTER = DateTimeFormatter.ofPattern("yyyy:MM:dd");
+    // 预取下一个号段的线程
+    private static final ExecutorService PREFETCH_EXECUTOR = Executors.newSingleThreadExecutor(
+            ThreadFactoryBuilder.create().setNamePrefix("id-segment-prefetch-").setDaemon(true).build());
+
     @Resource
     StringRedisTemplate stringRedisTemplate;
 
+    // 每次从Redis租用的序列号数量 <=1 时退回每次INCR
+    @Value("${hmdp.id.segment-size:1000}")
+    private int segmentSize;
+
+    // 当前号段剩余数量降到该比例时预取下一个号段
+    @Value("${hmdp.id.prefetch-ratio:0.2}")
+    private double prefetchRatio;
+
+    // 当前日期 只在跨天时重新计算 避免每次都创建LocalDateTime和格式化
+    private volatile DayCache dayCache = new DayCache(Long.MIN_VALUE, 0, null);
+
+    private final Map<String, SegmentHolder> holders = new ConcurrentHashMap<>();
+
     public long nextID(String keyPrefix){
-        LocalDateTime now = LocalDateTime.now();
-        // 1.生成时间戳
-        long nowSecond = now.toEpochSecond(ZoneOffset.UTC);
+        // 1.生成时间戳（与LocalDateTime.now().toEpochSecond(ZoneOffset.UTC)一致 即本地时间的秒数）
+        long epochSecond = System.currentTimeMillis() / 1000;
+        DayCache day = currentDay(epochSecond);
+        long nowSecond = epochSecond + day.offsetSeconds;
         long timeStamp = nowSecond - BEGIN_TIMESTAMP;
 
         // 2.生成序列号
         // 2.1.获取当前日期 精确到天
-        String day = now.format(DateTimeFormatter.ofPattern("yyyy:MM:dd"));
-        // 2.2.自增长
-        Long count = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + day);
+        // 2.2.自增长 号段模式下从本地号段中分配
+        long count;
+        if (segmentSize <= 1) {
+            count = stringRedisTemplate.opsForValue().increment(counterKey(keyPrefix, day.day));
+        } else {
+            count = holder(keyPrefix).next(day.day);
+        }
 
         // 3.拼接返回
         // timeStamp向左位移空出序列号的位数
         // 序列号与空出来的0坐或运算 01为1 00为0
         return timeStamp << COUNT_BITS | count;
     }
+
+    private static String counterKey(String keyPrefix, String day) {
+        return "icr:" + keyPrefix + ":" + day;
+    }
+
+    private DayCache currentDay(long epochSecond) {
+        DayCache cache = dayCache;
+        long localDay = Math.floorDiv(epochSecond + cache.offsetSeconds, SECONDS_PER_DAY);
+        if (localDay == cache.epochDay) {
+            return cache;
+        }
+        // 跨天（或首次调用） 重新计算时区偏移和日期字符串
+        int offset = ZoneId.systemDefault().getRules().getOffset(Instant.ofEpochSecond(epochSecond)).getTotalSeconds();
+        localDay = Math.floorDiv(epochSecond + offset, SECONDS_PER_DAY);
+        cache = new DayCache(localDay, offset, LocalDate.ofEpochDay(localDay).format(DAY_FORMATTER));
+        dayCache = cache;
+        return cache;
+    }
+
+    private SegmentHolder holder(String keyPrefix) {
+        SegmentHolder holder = holders.get(keyPrefix);
+        if (holder != null) {
+            return holder;
+        }
+        return holders.computeIfAbsent(keyPrefix, SegmentHolder::new);
+    }
+
+    /**
+     * 从Redis租用一个号段 INCRBY n 返回号段的最大值
+     */
+    private Segment lease(String keyPrefix, String day) {
+        Long max = stringRedisTemplate.opsForValue().increment(counterKey(keyPrefix, day), segmentSize);
+        return new Segment(day, max - segmentSize + 1, max);
+    }
+
+    private static class DayCache {
+        private final long epochDay;
+        private final int offsetSeconds;
+        private final String day;
+
+        private DayCache(long epochDay, int offsetSeconds, String day) {
+            this.epochDay = epochDay;
+            this.offsetSeconds = offsetSeconds;
+            this.day = day;
+        }
+    }
+
+    /**
+     * 号段 [cursor, max] 属于某一天
+     */
+    private static class Segment {
+        private final String day;
+        private final AtomicLong cursor;
+        private final long max;
+
+        private Segment(String day, long min, long max) {
+            this.day = day;
+            this.cursor = new AtomicLong(min);
+            this.max = max;
+        }
+    }
+
+    /**
+     * 某个业务前缀的当前号段和预取中的下一个号段
+     */
+    private class SegmentHolder {
+        private final String keyPrefix;
+        private volatile Segment current;
+        private CompletableFuture<Segment> prefetch;
+
+        private SegmentHolder(String keyPrefix) {
+            this.keyPrefix = keyPrefix;
+        }
+
+        private long next(String day) {
+            // 1.快速路径：当前号段还有剩余 CAS分配
+            Segment segment = current;
+            if (segment != null && segment.day.equals(day)) {
+                long value = segment.cursor.getAndIncrement();
+                if (value <= segment.max) {
+                    // 恰好降到低水位的那个线程负责触发预取
+                    if (segment.max - value == lowWaterMark()) {
+                        prefetch(day);
+                    }
+                    return value;
+                }
+            }
+            // 2.号段用完或跨天 加锁切换号段
+            synchronized (this) {
+                while (true) {
+                    segment = current;
+                    if (segment != null && segment.day.equals(day)) {
+                        long value = segment.cursor.getAndIncrement();
+                        if (value <= segment.max) {
+                            return value;
+                        }
+                    }
+                    current = takePrefetched(day);
+                }
+            }
+        }
+
+        private long lowWaterMark() {
+            return (long) (segmentSize * prefetchRatio);
+        }
+
+        private synchronized void prefetch(String day) {
+            if (prefetch != null) {
+                return;
+            }
+            prefetch = CompletableFuture.supplyAsync(() -> lease(keyPrefix, day), PREFETCH_EXECUTOR);
+        }
+
+        // 调用方已持有锁
+        private Segment takePrefetched(String day) {
+            CompletableFuture<Segment> future = prefetch;
+            prefetch = null;
+            if (future != null) {
+                try {
+                    Segment segment = future.join();
+                    // 预取的号段属于前一天时丢弃 新的一天从新key重新计数
+                    if (segment.day.equals(day)) {
+                        return segment;
+                    }
+                } catch (Exception e) {
+                    log.warn("预取号段失败，同步重新租用：{}", e.getMessage());
+                }
+            }
+            return lease(keyPrefix, day);
+        }
+    }
 }
@@ -0,0 +1,70 @@
+package com.jktt.utils;
+
+import cn.hutool.core.util.StrUtil;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * 游标分页的游标 由上一页最后一条的排序键和id组成
+ * 对客户端是不透明的字符串 内容为 base64url(键1,键2,...)
+ */
+public class ScrollCursor {
+
+    private ScrollCursor() {
+    }
+
+    /**
+     * 生成游标 最后一个键一般是id 保证排序唯一
+     */
+    public static String encode(long... keys) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < keys.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(keys[i]);
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 解析不定长的游标 第一个键一般用来区分游标的类型
+     * @return 第一页（游标为空）返回长度为0的数组 游标非法返回null
+     */
+    public static long[] decode(String cursor) {
+        if (StrUtil.isBlank(cursor)) {
+            return new long[0];
+        }
+        try {
+            String s = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            return decode(cursor, s.split(",").length);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 解析游标
+     * @param length 期望的键个数
+     * @return 第一页（游标为空）返回长度为0的数组 游标非法返回null
+     */
+    public static long[] decode(String cursor, int length) {
+        if (StrUtil.isBlank(cursor)) {
+            return new long[0];
+        }
+        try {
+            String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(",");
+            if (parts.length != length) {
+                return null;
+            }
+            long[] keys = new long[length];
+            for (int i = 0; i < length; i++) {
+                keys[i] = Long.parseLong(parts[i]);
+            }
+            return keys;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
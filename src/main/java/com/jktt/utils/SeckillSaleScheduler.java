@@ -0,0 +1,267 @@
+package com.jktt.utils;
+
+import cn.hutool.core.util.BooleanUtil;
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.jktt.entity.SeckillVoucher;
+import com.jktt.entity.VoucherOrder;
+import com.jktt.mapper.SeckillVoucherMapper;
+import com.jktt.mapper.VoucherOrderMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.jktt.utils.RedisConstants.LOCK_SECKILL_SCHEDULE_KEY;
+import static com.jktt.utils.RedisConstants.SECKILL_SETTLED_KEY;
+
+/**
+ * 秒杀的时间窗口与库存预热
+ * 1.各节点定时把即将开始和进行中的秒杀时间窗口加载到本地 下单前在本地判断是否在窗口内 窗口外的请求不访问Redis
+ * 2.检查Redis库存 不存在（新建时写入失败、Redis数据丢失）则按数据库的剩余库存和已下单用户重新加载
+ *   已经开始的秒杀要等所有订单都写入数据库（发件箱和消费组都没有积压）才重建 否则在途的订单会被重复售卖
+ * 3.结束reconcile-delay之后 并且订单都已写入数据库 用数据库库存核对Redis库存 以数据库为准收尾 并删除一人一单的订单集合
+ * 2、3只由拿到锁的一个节点执行
+ */
+@Slf4j
+@Component
+public class SeckillSaleScheduler {
+
+    // 恢复已下单用户时每批读取的行数
+    private static final int ORDER_LOAD_BATCH_SIZE = 1000;
+    // 结束超过该时间仍未收尾的秒杀不再处理
+    private static final long SETTLE_LOOKBACK_HOURS = 24L;
+    // 收尾标记的有效期 超过回看时间后定时任务不会再查到这个秒杀
+    private static final long SETTLED_TTL_HOURS = SETTLE_LOOKBACK_HOURS + 1;
+    // 本地记录的不是秒杀券的id数量上限
+    private static final long MISSING_MAX_SIZE = 10_000L;
+
+    public enum SaleState {
+        NOT_FOUND, NOT_STARTED, ACTIVE, ENDED
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private SeckillVoucherMapper seckillVoucherMapper;
+
+    @Resource
+    private VoucherOrderMapper voucherOrderMapper;
+
+    @Resource
+    private SeckillStockManager seckillStockManager;
+
+    @Resource
+    private OrderBacklog orderBacklog;
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    // 开始前多久预热库存并加载时间窗口
+    @Value("${hmdp.seckill.schedule.lookahead-seconds:300}")
+    private long lookaheadSeconds;
+
+    // 结束后多久核对库存 需要大于订单从下单到写入数据库的最长时间
+    @Value("${hmdp.seckill.schedule.reconcile-delay-seconds:300}")
+    private long reconcileDelaySeconds;
+
+    @Value("${hmdp.seckill.schedule.interval-ms:10000}")
+    private long intervalMillis;
+
+    // voucherId -> {开始时间, 结束时间} 毫秒
+    private final Map<Long, long[]> windows = new ConcurrentHashMap<>();
+
+    // 查过数据库但不是秒杀券的id（普通券、已删除的券）过期时间与定时任务周期相同
+    // 其它节点新建的秒杀券最多在一个周期后可以查到
+    private Cache<Long, Boolean> missing;
+
+    @PostConstruct
+    public void init() {
+        missing = Caffeine.newBuilder()
+                .maximumSize(MISSING_MAX_SIZE)
+                .expireAfterWrite(intervalMillis, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    /**
+     * 秒杀券当前是否可以下单 只读本地的时间窗口
+     * 本地没有的秒杀券查一次数据库 查不到的id也在本地记录 一个周期内不再查库
+     */
+    public SaleState state(Long voucherId) {
+        long[] window = windows.get(voucherId);
+        if (window == null) {
+            if (missing.getIfPresent(voucherId) != null) {
+                return SaleState.NOT_FOUND;
+            }
+            SeckillVoucher voucher = seckillVoucherMapper.selectById(voucherId);
+            if (voucher == null) {
+                missing.put(voucherId, Boolean.TRUE);
+                return SaleState.NOT_FOUND;
+            }
+            window = register(voucher);
+        }
+        long now = System.currentTimeMillis();
+        if (now < window[0]) {
+            return SaleState.NOT_STARTED;
+        }
+        return now < window[1] ? SaleState.ACTIVE : SaleState.ENDED;
+    }
+
+    /**
+     * 登记秒杀券的时间窗口 新建秒杀券时调用 其它节点在下次定时任务时加载
+     */
+    public long[] register(SeckillVoucher voucher) {
+        long[] window = {toMillis(voucher.getBeginTime()), toMillis(voucher.getEndTime())};
+        windows.put(voucher.getVoucherId(), window);
+        missing.invalidate(voucher.getVoucherId());
+        return window;
+    }
+
+    @Scheduled(fixedDelayString = "${hmdp.seckill.schedule.interval-ms:10000}")
+    public void schedule() {
+        // 1.即将开始、进行中和等待收尾的秒杀
+        LocalDateTime now = LocalDateTime.now();
+        List<SeckillVoucher> vouchers;
+        try {
+            vouchers = seckillVoucherMapper.selectList(new LambdaQueryWrapper<SeckillVoucher>()
+                    .le(SeckillVoucher::getBeginTime, now.plusSeconds(lookaheadSeconds))
+                    .gt(SeckillVoucher::getEndTime, now.minusSeconds(reconcileDelaySeconds).minusHours(SETTLE_LOOKBACK_HOURS)));
+        } catch (Exception e) {
+            log.warn("加载秒杀时间窗口失败 继续使用本地数据：{}", e.getMessage());
+            return;
+        }
+        // 2.每个节点都刷新本地时间窗口 开始/结束时间被修改后在这里生效 已经超过收尾回看时间的移除
+        vouchers.forEach(this::register);
+        evictExpiredWindows();
+        if (vouchers.isEmpty()) {
+            return;
+        }
+
+        // 3.预热和收尾只由一个节点执行 看门狗在执行期间自动续期 释放时校验持有者
+        RLock lock = redissonClient.getLock(LOCK_SECKILL_SCHEDULE_KEY);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            LocalDateTime settleBefore = now.minusSeconds(reconcileDelaySeconds);
+            // 订单是否都已写入数据库 需要时才查询 本轮只查一次
+            Boolean drained = null;
+            for (SeckillVoucher voucher : vouchers) {
+                try {
+                    boolean started = !now.isBefore(voucher.getBeginTime());
+                    boolean settling = !voucher.getEndTime().isAfter(settleBefore);
+                    if (settling) {
+                        if (isSettled(voucher)) {
+                            continue;
+                        }
+                    } else if (!now.isBefore(voucher.getEndTime()) || !isStockMissing(voucher)) {
+                        // 已结束等待收尾 或者Redis库存还在
+                        continue;
+                    }
+                    if ((started || settling) && drained == null) {
+                        drained = orderBacklog.isDrained();
+                    }
+                    if (settling) {
+                        if (drained) {
+                            settle(voucher);
+                        } else {
+                            log.info("订单仍在投递 暂缓收尾 voucherId={}", voucher.getVoucherId());
+                        }
+                    } else if (!started || drained) {
+                        prewarm(voucher);
+                    } else {
+                        log.warn("秒杀进行中Redis库存丢失 等在途订单写入数据库后再重建 voucherId={}", voucher.getVoucherId());
+                    }
+                } catch (Exception e) {
+                    log.error("秒杀预热/收尾失败 下次重试 voucherId=" + voucher.getVoucherId(), e);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 结束超过reconcile-delay + 回看时间的窗口不会再变化 从本地移除
+     * 之后再查询这些秒杀券时重新查库登记 下个周期再移除
+     */
+    private void evictExpiredWindows() {
+        long expireBefore = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(reconcileDelaySeconds)
+                - TimeUnit.HOURS.toMillis(SETTLE_LOOKBACK_HOURS);
+        windows.values().removeIf(window -> window[1] < expireBefore);
+    }
+
+    private boolean isSettled(SeckillVoucher voucher) {
+        return BooleanUtil.isTrue(stringRedisTemplate.hasKey(SECKILL_SETTLED_KEY + voucher.getVoucherId()));
+    }
+
+    private boolean isStockMissing(SeckillVoucher voucher) {
+        Long voucherId = voucher.getVoucherId();
+        int shards = seckillStockManager.shardCount(voucherId);
+        return !BooleanUtil.isTrue(stringRedisTemplate.hasKey(seckillStockManager.stockKey(voucherId, 0, shards)));
+    }
+
+    /**
+     * Redis中没有库存时 按数据库的剩余库存和已下单用户重新加载
+     * 调用方保证没有在途的订单 数据库中的库存和订单是完整的
+     */
+    private void prewarm(SeckillVoucher voucher) {
+        Long voucherId = voucher.getVoucherId();
+        List<Long> userIds = loadOrderedUsers(voucherId);
+        seckillStockManager.initStock(voucherId, voucher.getStock(), userIds);
+        log.info("秒杀库存已预热 voucherId={} stock={} 已下单用户{}个", voucherId, voucher.getStock(), userIds.size());
+    }
+
+    /**
+     * 结束后核对Redis与数据库的库存 以数据库为准 并删除订单集合
+     * 调用方保证订单都已写入数据库
+     */
+    private void settle(SeckillVoucher voucher) {
+        Long voucherId = voucher.getVoucherId();
+        Integer redisStock = seckillStockManager.currentStocks(Collections.singletonList(voucherId)).get(voucherId);
+        if (!Objects.equals(redisStock, voucher.getStock())) {
+            log.warn("秒杀库存核对不一致 voucherId={} redis={} db={} 以数据库为准", voucherId, redisStock, voucher.getStock());
+        }
+        seckillStockManager.settle(voucherId, voucher.getStock());
+        stringRedisTemplate.opsForValue().set(SECKILL_SETTLED_KEY + voucherId, "1", SETTLED_TTL_HOURS, TimeUnit.HOURS);
+        log.info("秒杀已收尾 voucherId={} 剩余库存{}", voucherId, voucher.getStock());
+    }
+
+    private List<Long> loadOrderedUsers(Long voucherId) {
+        List<Long> userIds = new ArrayList<>();
+        long lastUserId = 0;
+        while (true) {
+            List<Object> batch = voucherOrderMapper.selectObjs(new QueryWrapper<VoucherOrder>()
+                    .select("user_id")
+                    .eq("voucher_id", voucherId)
+                    .gt("user_id", lastUserId)
+                    .orderByAsc("user_id")
+                    .last("limit " + ORDER_LOAD_BATCH_SIZE));
+            for (Object userId : batch) {
+                userIds.add(((Number) userId).longValue());
+            }
+            if (batch.size() < ORDER_LOAD_BATCH_SIZE) {
+                return userIds;
+            }
+            lastUserId = userIds.get(userIds.size() - 1);
+        }
+    }
+
+    private static long toMillis(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+}
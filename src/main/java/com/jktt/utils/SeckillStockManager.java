@@ -0,0 +1,219 @@
+package com.jktt.utils;
+
+import cn.hutool.core.util.StrUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.jktt.utils.RedisConstants.*;
+
+/**
+ * 秒杀库存的分片与本地售罄标记
+ * 1.售罄标记：lua返回库存不足后在本地记下 并通过Redis频道广播给所有节点 之后的请求不再访问Redis
+ * 2.库存分片：库存拆成N个子key 用户按userId固定落到其中一个分片 热点key分散到集群的不同slot
+ *   同一个用户永远落在同一个分片 一人一单在分片内校验即可 分片之间不会超卖
+ *   代价是某个分片卖完时 落在该分片的用户会收到库存不足 即使其它分片还有库存
+ */
+@Slf4j
+@Component
+public class SeckillStockManager implements MessageListener {
+
+    private static final String RESET_PREFIX = "reset:";
+    // 恢复订单集合时每条SADD的成员数
+    private static final int ORDER_RESTORE_BATCH = 1000;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    // 新建秒杀券时的库存分片数 1表示不分片
+    @Value("${hmdp.seckill.stock-shards:1}")
+    private int defaultShards;
+
+    // voucherId -> 分片数 创建后不会变化 本地缓存
+    private final Map<Long, Integer> shardCounts = new ConcurrentHashMap<>();
+
+    // 已售罄的分片 voucherId:shard
+    private final Set<String> soldOut = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 加载秒杀库存 按分片数拆分写入Redis 并恢复已下单用户、清除各节点的售罄标记
+     * 用于开始前的预热和Redis数据丢失后的重建
+     * 先写订单集合再写库存 库存可用时一人一单的校验已经生效
+     * @param orderedUserIds 已下单的用户
+     */
+    public void initStock(Long voucherId, int stock, Collection<Long> orderedUserIds) {
+        int shards = Math.max(1, defaultShards);
+        if (!orderedUserIds.isEmpty()) {
+            Map<String, List<String>> members = new HashMap<>();
+            for (Long userId : orderedUserIds) {
+                members.computeIfAbsent(orderKey(voucherId, shardOf(voucherId, userId, shards), shards),
+                        k -> new ArrayList<>()).add(userId.toString());
+            }
+            stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public Object execute(RedisOperations operations) throws DataAccessException {
+                    members.forEach((key, users) -> {
+                        for (int from = 0; from < users.size(); from += ORDER_RESTORE_BATCH) {
+                            List<String> batch = users.subList(from, Math.min(from + ORDER_RESTORE_BATCH, users.size()));
+                            operations.opsForSet().add(key, batch.toArray());
+                        }
+                    });
+                    return null;
+                }
+            });
+        }
+        Map<String, String> values = new HashMap<>();
+        for (int shard = 0; shard < shards; shard++) {
+            // 余数分给前面的分片
+            int shardStock = stock / shards + (shard < stock % shards ? 1 : 0);
+            values.put(stockKey(voucherId, shard, shards), String.valueOf(shardStock));
+        }
+        stringRedisTemplate.opsForValue().multiSet(values);
+        stringRedisTemplate.opsForValue().set(SECKILL_SHARDS_KEY + voucherId, String.valueOf(shards));
+        shardCounts.put(voucherId, shards);
+        resetSoldOut(voucherId);
+        stringRedisTemplate.convertAndSend(SECKILL_SOLD_OUT_CHANNEL, RESET_PREFIX + voucherId);
+    }
+
+    /**
+     * 获取秒杀券的库存分片数 没有记录的旧秒杀券视为不分片
+     */
+    public int shardCount(Long voucherId) {
+        Integer shards = shardCounts.get(voucherId);
+        if (shards != null) {
+            return shards;
+        }
+        String value = stringRedisTemplate.opsForValue().get(SECKILL_SHARDS_KEY + voucherId);
+        shards = StrUtil.isBlank(value) ? 1 : Integer.parseInt(value);
+        shardCounts.put(voucherId, shards);
+        return shards;
+    }
+
+    /**
+     * 撤销一次lua扣减 订单没能写入发件箱时归还库存和下单资格
+     */
+    public void rollback(Long voucherId, int shard, int shards, Long userId) {
+        stringRedisTemplate.opsForSet().remove(orderKey(voucherId, shard, shards), userId.toString());
+        stringRedisTemplate.opsForValue().increment(stockKey(voucherId, shard, shards));
+    }
+
+    /**
+     * 秒杀结束后的收尾 删除所有分片的库存和订单集合 库存按数据库的值合并成一个不分片的key
+     * 之后列表页展示的库存与数据库一致
+     */
+    public void settle(Long voucherId, int stock) {
+        int shards = shardCount(voucherId);
+        List<String> keys = new ArrayList<>(shards * 2);
+        for (int shard = 0; shard < shards; shard++) {
+            keys.add(stockKey(voucherId, shard, shards));
+            keys.add(orderKey(voucherId, shard, shards));
+        }
+        stringRedisTemplate.delete(keys);
+        stringRedisTemplate.opsForValue().set(stockKey(voucherId, 0, 1), String.valueOf(stock));
+        stringRedisTemplate.opsForValue().set(SECKILL_SHARDS_KEY + voucherId, "1");
+        shardCounts.put(voucherId, 1);
+        resetSoldOut(voucherId);
+        stringRedisTemplate.convertAndSend(SECKILL_SOLD_OUT_CHANNEL, RESET_PREFIX + voucherId);
+    }
+
+    /**
+     * 批量读取秒杀券的当前库存 所有分片的key一次MGET 分片库存相加
+     * @return voucherId -> 库存 Redis中没有库存的秒杀券不在结果中
+     */
+    public Map<Long, Integer> currentStocks(List<Long> voucherIds) {
+        if (voucherIds.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        List<String> keys = new ArrayList<>(voucherIds.size());
+        int[] shardCounts = new int[voucherIds.size()];
+        for (int i = 0; i < voucherIds.size(); i++) {
+            Long voucherId = voucherIds.get(i);
+            int shards = shardCount(voucherId);
+            shardCounts[i] = shards;
+            for (int shard = 0; shard < shards; shard++) {
+                keys.add(stockKey(voucherId, shard, shards));
+            }
+        }
+        List<String> values = stringRedisTemplate.opsForValue().multiGet(keys);
+        Map<Long, Integer> stocks = new HashMap<>(voucherIds.size() * 2);
+        if (values == null) {
+            return stocks;
+        }
+        int index = 0;
+        for (int i = 0; i < voucherIds.size(); i++) {
+            int stock = 0;
+            boolean found = false;
+            for (int shard = 0; shard < shardCounts[i]; shard++) {
+                String value = values.get(index++);
+                if (StrUtil.isNotBlank(value)) {
+                    stock += Integer.parseInt(value);
+                    found = true;
+                }
+            }
+            if (found) {
+                stocks.put(voucherIds.get(i), stock);
+            }
+        }
+        return stocks;
+    }
+
+    /**
+     * 用户固定映射到一个分片
+     */
+    public int shardOf(Long voucherId, Long userId, int shards) {
+        return (int) Math.floorMod(userId, (long) shards);
+    }
+
+    public String stockKey(Long voucherId, int shard, int shards) {
+        // 不分片时保持原来的key 分片时用hash tag让同一分片的库存和订单key落在同一个slot
+        return shards == 1 ? SECKILL_STOCK_KEY + voucherId : SECKILL_STOCK_KEY + "{" + voucherId + ":" + shard + "}";
+    }
+
+    public String orderKey(Long voucherId, int shard, int shards) {
+        return shards == 1 ? SECKILL_ORDER_KEY + voucherId : SECKILL_ORDER_KEY + "{" + voucherId + ":" + shard + "}";
+    }
+
+    public boolean isSoldOut(Long voucherId, int shard) {
+        return !soldOut.isEmpty() && soldOut.contains(voucherId + ":" + shard);
+    }
+
+    /**
+     * 标记分片售罄 并通知其它节点
+     */
+    public void markSoldOut(Long voucherId, int shard) {
+        String member = voucherId + ":" + shard;
+        if (soldOut.add(member)) {
+            stringRedisTemplate.convertAndSend(SECKILL_SOLD_OUT_CHANNEL, member);
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        if (body.startsWith(RESET_PREFIX)) {
+            Long voucherId = Long.valueOf(body.substring(RESET_PREFIX.length()));
+            // 库存重新加载 分片数可能变化
+            shardCounts.remove(voucherId);
+            resetSoldOut(voucherId);
+            return;
+        }
+        soldOut.add(body);
+    }
+
+    private void resetSoldOut(Long voucherId) {
+        String prefix = voucherId + ":";
+        soldOut.removeIf(member -> member.startsWith(prefix));
+    }
+}
@@ -0,0 +1,122 @@
+package com.jktt.utils;
+
+import cn.hutool.core.util.BooleanUtil;
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.jktt.entity.Shop;
+import com.jktt.mapper.ShopMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.geo.*;
+import org.springframework.data.redis.connection.RedisGeoCommands;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.*;
+
+import static com.jktt.utils.RedisConstants.SHOP_GEO_KEY;
+import static com.jktt.utils.RedisConstants.SHOP_GEO_READY_KEY;
+
+/**
+ * 商铺的地理位置索引 每种类型一个GEO集合 shop:geo:{typeId} member为商铺id
+ * 启动时按主键分批全量加载（其它节点已加载过则跳过） 新增/修改商铺时同步
+ */
+@Slf4j
+@Component
+public class ShopGeoIndex implements ApplicationRunner {
+
+    // 启动时分批读取商铺的批大小
+    private static final int LOAD_BATCH_SIZE = 1000;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private ShopMapper shopMapper;
+
+    // 附近商铺的搜索半径
+    @Value("${hmdp.shop.geo.radius-meters:5000}")
+    private double radiusMeters;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (BooleanUtil.isTrue(stringRedisTemplate.hasKey(SHOP_GEO_READY_KEY))) {
+            return;
+        }
+        long lastId = 0;
+        int total = 0;
+        while (true) {
+            List<Shop> shops = shopMapper.selectList(new LambdaQueryWrapper<Shop>()
+                    .select(Shop::getId, Shop::getTypeId, Shop::getX, Shop::getY)
+                    .gt(Shop::getId, lastId)
+                    .orderByAsc(Shop::getId)
+                    .last("limit " + LOAD_BATCH_SIZE));
+            if (shops.isEmpty()) {
+                break;
+            }
+            // 按类型分组 每组一条GEOADD
+            Map<Long, List<RedisGeoCommands.GeoLocation<String>>> byType = new HashMap<>();
+            for (Shop shop : shops) {
+                if (shop.getTypeId() == null || shop.getX() == null || shop.getY() == null) {
+                    continue;
+                }
+                byType.computeIfAbsent(shop.getTypeId(), t -> new ArrayList<>())
+                        .add(new RedisGeoCommands.GeoLocation<>(shop.getId().toString(), new Point(shop.getX(), shop.getY())));
+            }
+            byType.forEach((typeId, locations) -> stringRedisTemplate.opsForGeo().add(SHOP_GEO_KEY + typeId, locations));
+            total += shops.size();
+            lastId = shops.get(shops.size() - 1).getId();
+        }
+        stringRedisTemplate.opsForValue().set(SHOP_GEO_READY_KEY, "1");
+        log.info("商铺GEO索引加载完成 共{}家", total);
+    }
+
+    /**
+     * 新增或修改商铺的位置
+     * @param oldTypeId 修改前的类型 类型变化时从旧集合中删除 新增时传null
+     */
+    public void save(Shop shop, Long oldTypeId) {
+        if (oldTypeId != null && !oldTypeId.equals(shop.getTypeId())) {
+            stringRedisTemplate.opsForGeo().remove(SHOP_GEO_KEY + oldTypeId, shop.getId().toString());
+        }
+        if (shop.getTypeId() == null || shop.getX() == null || shop.getY() == null) {
+            return;
+        }
+        stringRedisTemplate.opsForGeo().add(
+                SHOP_GEO_KEY + shop.getTypeId(), new Point(shop.getX(), shop.getY()), shop.getId().toString());
+    }
+
+    /**
+     * 按距离由近到远分页查询
+     * Spring Data Redis 2.3 没有 GEOSEARCH 的API 用等价的 GEORADIUS ... WITHDIST COUNT ASC
+     * @return 商铺id -> 距离（米） 按距离升序
+     */
+    public LinkedHashMap<Long, Double> nearby(Long typeId, double x, double y, int from, int size) {
+        // COUNT必须为正数 没有要取的数据时不访问Redis
+        from = Math.max(from, 0);
+        if (size <= 0) {
+            return new LinkedHashMap<>();
+        }
+        // 按long计算 调用方传入很大的from时不会溢出成负数
+        long end = (long) from + size;
+        RedisGeoCommands.GeoRadiusCommandArgs args = RedisGeoCommands.GeoRadiusCommandArgs
+                .newGeoRadiusArgs().includeDistance().sortAscending().limit(end);
+        GeoResults<RedisGeoCommands.GeoLocation<String>> results = stringRedisTemplate.opsForGeo().radius(
+                SHOP_GEO_KEY + typeId,
+                new Circle(new Point(x, y), new Distance(radiusMeters, RedisGeoCommands.DistanceUnit.METERS)),
+                args);
+        LinkedHashMap<Long, Double> page = new LinkedHashMap<>(size * 2);
+        if (results == null) {
+            return page;
+        }
+        List<GeoResult<RedisGeoCommands.GeoLocation<String>>> list = results.getContent();
+        // COUNT只能从第一条开始取 跳过前from条
+        for (int i = from; i < list.size(); i++) {
+            GeoResult<RedisGeoCommands.GeoLocation<String>> result = list.get(i);
+            page.put(Long.valueOf(result.getContent().getName()), result.getDistance().getValue());
+        }
+        return page;
+    }
+}
@@ -0,0 +1,316 @@
+package com.jktt.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.jktt.entity.Shop;
+import com.jktt.mapper.ShopMapper;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 商铺名称的本地n-gram索引 代替 LIKE '%name%' 的全表扫描
+ * 1.名称统一转小写去空白后 每个单字和相邻两个字都登记一个倒排表 gram -> 商铺id集合
+ * 2.查询时取关键字各个gram中最短的倒排表 逐个用名称校验是否包含关键字 再排序分页
+ * 3.启动时按主键分批全量加载 本节点新增/修改商铺时在事务提交后更新 其它节点的修改按update_time定时增量同步
+ *   update_time在语句执行时生成 提交可能更晚 每次同步都回看overlap-seconds 晚提交的修改不会被跳过
+ */
+@Slf4j
+@Component
+public class ShopNameIndex implements ApplicationRunner {
+
+    // 分批读取商铺的批大小
+    private static final int LOAD_BATCH_SIZE = 1000;
+
+    @Resource
+    private ShopMapper shopMapper;
+
+    // 增量同步时回看的时间 需要大于修改商铺的事务的最长执行时间
+    @Value("${hmdp.shop.search.sync-overlap-seconds:60}")
+    private long syncOverlapSeconds;
+
+    // 商铺id -> 归一化后的名称
+    private final Map<Long, String> names = new ConcurrentHashMap<>();
+    // gram -> (商铺id -> 归一化后的名称) 倒排表直接带上名称 校验时不用再查names
+    private final Map<String, Map<Long, String>> postings = new ConcurrentHashMap<>();
+
+    // 已同步到的最大update_time
+    private LocalDateTime lastUpdateTime;
+
+    private volatile boolean ready = false;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        // 全量加载前先记下同步起点 加载期间的修改由第一次增量同步补上
+        LocalDateTime syncFrom = LocalDateTime.now().minusMinutes(1);
+        long lastLoadedId = 0;
+        while (true) {
+            List<Shop> shops = shopMapper.selectList(new LambdaQueryWrapper<Shop>()
+                    .select(Shop::getId, Shop::getName)
+                    .gt(Shop::getId, lastLoadedId)
+                    .orderByAsc(Shop::getId)
+                    .last("limit " + LOAD_BATCH_SIZE));
+            if (shops.isEmpty()) {
+                break;
+            }
+            shops.forEach(shop -> put(shop.getId(), shop.getName()));
+            lastLoadedId = shops.get(shops.size() - 1).getId();
+        }
+        lastUpdateTime = syncFrom;
+        ready = true;
+        log.info("商铺名称索引加载完成 共{}家 {}个gram", names.size(), postings.size());
+    }
+
+    /**
+     * 索引是否已加载 加载完成前调用方应退回数据库查询
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * 按update_time增量同步其它节点或直接改库的修改
+     * 从lastUpdateTime - overlap开始按(update_time, id)分批读取 重复读到的商铺名称没变时put直接返回
+     */
+    @Scheduled(fixedDelayString = "${hmdp.shop.search.sync-interval-ms:5000}")
+    public synchronized void sync() {
+        if (!ready) {
+            return;
+        }
+        LocalDateTime time = lastUpdateTime.minusSeconds(syncOverlapSeconds);
+        long id = 0;
+        while (true) {
+            LocalDateTime afterTime = time;
+            long afterId = id;
+            List<Shop> shops = shopMapper.selectList(new LambdaQueryWrapper<Shop>()
+                    .select(Shop::getId, Shop::getName, Shop::getUpdateTime)
+                    .and(w -> w.gt(Shop::getUpdateTime, afterTime)
+                            .or(o -> o.eq(Shop::getUpdateTime, afterTime).gt(Shop::getId, afterId)))
+                    .orderByAsc(Shop::getUpdateTime, Shop::getId)
+                    .last("limit " + LOAD_BATCH_SIZE));
+            for (Shop shop : shops) {
+                put(shop.getId(), shop.getName());
+                time = shop.getUpdateTime();
+                id = shop.getId();
+            }
+            if (time.isAfter(lastUpdateTime)) {
+                lastUpdateTime = time;
+            }
+            if (shops.size() < LOAD_BATCH_SIZE) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 新增或修改商铺名称 写操作串行 查询不加锁
+     */
+    public synchronized void put(Long id, String name) {
+        String normalized = normalize(name);
+        String old = normalized.isEmpty() ? names.remove(id) : names.put(id, normalized);
+        if (normalized.equals(old)) {
+            return;
+        }
+        if (old != null) {
+            for (String gram : grams(old)) {
+                postings.computeIfPresent(gram, (g, entries) -> {
+                    entries.remove(id);
+                    return entries.isEmpty() ? null : entries;
+                });
+            }
+        }
+        for (String gram : grams(normalized)) {
+            postings.computeIfAbsent(gram, g -> new ConcurrentHashMap<>()).put(id, normalized);
+        }
+    }
+
+    /**
+     * 按名称关键字查询商铺id
+     * 排序：名称完全相同 > 以关键字开头 > 关键字出现位置靠前 > 名称较短 > id较小
+     * @param from 跳过的条数
+     * @param size 返回的条数
+     */
+    public List<Long> search(String keyword, int from, int size) {
+        if (size <= 0) {
+            return Collections.emptyList();
+        }
+        from = Math.max(from, 0);
+        Hit[] hits = top(normalize(keyword), null, from + size);
+        if (hits.length <= from) {
+            return Collections.emptyList();
+        }
+        List<Long> ids = new ArrayList<>(hits.length - from);
+        for (int i = from; i < hits.length; i++) {
+            ids.add(hits[i].id);
+        }
+        return ids;
+    }
+
+    /**
+     * 游标分页 排序同search
+     * @param after 上一页的next 第一页传null或空数组
+     * @param size 返回的条数
+     */
+    public NamePage scroll(String keyword, long[] after, int size) {
+        Hit cursor = after == null || after.length != 4
+                ? null : new Hit(after[3], (int) after[0], (int) after[1], (int) after[2]);
+        // 多取一条判断是否还有下一页
+        Hit[] hits = top(normalize(keyword), cursor, size + 1);
+        NamePage page = new NamePage();
+        int n = Math.min(hits.length, size);
+        List<Long> ids = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            ids.add(hits[i].id);
+        }
+        page.setIds(ids);
+        if (hits.length > size) {
+            Hit last = hits[size - 1];
+            page.setNext(new long[]{last.match, last.pos, last.length, last.id});
+        }
+        return page;
+    }
+
+    /**
+     * 排在after之后的前limit个命中 按排序返回
+     */
+    private Hit[] top(String query, Hit after, int limit) {
+        if (query.isEmpty() || limit <= 0) {
+            return new Hit[0];
+        }
+        // 1.关键字中最短的倒排表作为候选
+        Map<Long, String> candidates = null;
+        for (String gram : queryGrams(query)) {
+            Map<Long, String> entries = postings.get(gram);
+            if (entries == null) {
+                return new Hit[0];
+            }
+            if (candidates == null || entries.size() < candidates.size()) {
+                candidates = entries;
+            }
+        }
+        if (candidates == null) {
+            return new Hit[0];
+        }
+        // 2.逐个校验并只保留前limit个 大顶堆堆顶是当前排得最靠后的
+        PriorityQueue<Hit> top = new PriorityQueue<>(Math.min(limit, candidates.size()) + 1, Comparator.reverseOrder());
+        for (Map.Entry<Long, String> entry : candidates.entrySet()) {
+            String name = entry.getValue();
+            int pos = name.indexOf(query);
+            if (pos < 0) {
+                continue;
+            }
+            int match = name.length() == query.length() ? 0 : (pos == 0 ? 1 : 2);
+            long id = entry.getKey();
+            if (after != null && !after.isBefore(match, pos, name.length(), id)) {
+                continue;
+            }
+            if (top.size() < limit) {
+                top.add(new Hit(id, match, pos, name.length()));
+            } else if (top.peek().isAfter(match, pos, name.length(), id)) {
+                top.poll();
+                top.add(new Hit(id, match, pos, name.length()));
+            }
+        }
+        // 3.堆中是前limit个 倒序取出
+        Hit[] ranked = new Hit[top.size()];
+        for (int i = ranked.length - 1; i >= 0; i--) {
+            ranked[i] = top.poll();
+        }
+        return ranked;
+    }
+
+    private static String normalize(String name) {
+        return StrUtil.isBlank(name) ? "" : StrUtil.cleanBlank(name).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * 名称的全部单字和相邻两字
+     */
+    private static Set<String> grams(String name) {
+        Set<String> grams = new HashSet<>(name.length() * 2);
+        for (int i = 0; i < name.length(); i++) {
+            grams.add(name.substring(i, i + 1));
+            if (i + 1 < name.length()) {
+                grams.add(name.substring(i, i + 2));
+            }
+        }
+        return grams;
+    }
+
+    /**
+     * 关键字只有一个字时查单字 否则查所有相邻两字
+     */
+    private static Set<String> queryGrams(String query) {
+        if (query.length() == 1) {
+            return Collections.singleton(query);
+        }
+        Set<String> grams = new HashSet<>(query.length());
+        for (int i = 0; i + 1 < query.length(); i++) {
+            grams.add(query.substring(i, i + 2));
+        }
+        return grams;
+    }
+
+    @Data
+    public static class NamePage {
+        private List<Long> ids;
+        // 本页最后一条的排序键 (匹配类型, 位置, 名称长度, id) 没有下一页时为null
+        private long[] next;
+    }
+
+    private static final class Hit implements Comparable<Hit> {
+        private final long id;
+        // 0完全相同 1前缀 2包含
+        private final int match;
+        private final int pos;
+        private final int length;
+
+        private Hit(long id, int match, int pos, int length) {
+            this.id = id;
+            this.match = match;
+            this.pos = pos;
+            this.length = length;
+        }
+
+        /**
+         * 本条是否排在给定的命中之后
+         */
+        private boolean isAfter(int match, int pos, int length, long id) {
+            if (this.match != match) {
+                return this.match > match;
+            }
+            if (this.pos != pos) {
+                return this.pos > pos;
+            }
+            if (this.length != length) {
+                return this.length > length;
+            }
+            return this.id > id;
+        }
+
+        /**
+         * 本条是否排在给定的命中之前
+         */
+        private boolean isBefore(int match, int pos, int length, long id) {
+            return !isAfter(match, pos, length, id)
+                    && (this.match != match || this.pos != pos || this.length != length || this.id != id);
+        }
+
+        @Override
+        public int compareTo(Hit o) {
+            if (isAfter(o.match, o.pos, o.length, o.id)) {
+                return 1;
+            }
+            return o.isAfter(match, pos, length, id) ? -1 : 0;
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package com.jktt.utils;
+
+import cn.hutool.core.util.BooleanUtil;
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.jktt.entity.SignMonth;
+import com.jktt.mapper.SignMonthMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.BitFieldSubCommands;
+import org.springframework.data.redis.core.*;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.jktt.utils.RedisConstants.LOCK_SIGN_ARCHIVE_KEY;
+import static com.jktt.utils.RedisConstants.USER_SIGN_KEY;
+
+/**
+ * 用户签到
+ * 1.每个用户每月一个bitmap sign:{userId}:{yyyyMM} 第N天签到就把第N-1位置1 一个月最多4个字节
+ * 2.连续签到天数用一次BITFIELD GET u{今天是几号} 0取出本月到今天为止的位 从最低位(今天)往前数连续的1
+ * 3.当月和上月的bitmap留在Redis 更早的月份可由定时任务批量归档到tb_sign_month后删除
+ */
+@Slf4j
+@Component
+public class SignStore {
+
+    private static final DateTimeFormatter MONTH_FORMAT = DateTimeFormatter.ofPattern("yyyyMM");
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private SignMonthMapper signMonthMapper;
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    @Value("${hmdp.sign.archive.enabled:false}")
+    private boolean archiveEnabled;
+
+    @Value("${hmdp.sign.archive.batch-size:500}")
+    private int archiveBatchSize;
+
+    /**
+     * 签到
+     * @return true为本次签到 false为今天已经签过
+     */
+    public boolean sign(Long userId) {
+        LocalDate today = LocalDate.now();
+        Boolean signed = stringRedisTemplate.opsForValue()
+                .setBit(key(userId, YearMonth.from(today)), today.getDayOfMonth() - 1, true);
+        return !BooleanUtil.isTrue(signed);
+    }
+
+    /**
+     * 截至今天的连续签到天数
+     * 今天还没签到时从昨天往前数 今天结束前不算断签
+     * 连续签到覆盖了整月时才会再读上一个月 通常只访问一次Redis
+     */
+    public int streak(Long userId) {
+        LocalDate today = LocalDate.now();
+        YearMonth month = YearMonth.from(today);
+        int days = today.getDayOfMonth();
+        long bits = bitsOf(userId, month, days);
+        if ((bits & 1) == 0) {
+            bits >>>= 1;
+            days--;
+        }
+        int streak = 0;
+        while (true) {
+            // 末尾连续1的个数 最多为days
+            int run = Long.numberOfTrailingZeros(~bits);
+            streak += run;
+            if (run < days) {
+                return streak;
+            }
+            month = month.minusMonths(1);
+            days = month.lengthOfMonth();
+            bits = bitsOf(userId, month, days);
+        }
+    }
+
+    /**
+     * 某月的签到总天数 BITCOUNT
+     */
+    public long monthCount(Long userId, YearMonth month) {
+        byte[] rawKey = key(userId, month).getBytes(StandardCharsets.UTF_8);
+        Long count = stringRedisTemplate.execute((RedisCallback<Long>) connection -> connection.bitCount(rawKey));
+        if (count != null && count > 0) {
+            return count;
+        }
+        SignMonth archived = isArchivable(month) ? selectArchived(userId, month) : null;
+        return archived == null ? 0 : Long.bitCount(archived.getSignBits());
+    }
+
+    /**
+     * 把上月之前的bitmap批量归档到tb_sign_month 然后删掉Redis中的key
+     * 归档是按位或合并的 中途失败下次重跑不会丢数据
+     */
+    @Scheduled(cron = "${hmdp.sign.archive.cron:0 30 3 * * ?}")
+    public void archive() {
+        if (!archiveEnabled) {
+            return;
+        }
+        // 多个节点只有一个归档 看门狗在归档期间自动续期 释放时校验持有者
+        RLock lock = redissonClient.getLock(LOCK_SIGN_ARCHIVE_KEY);
+        if (!lock.tryLock()) {
+            return;
+        }
+        ScanOptions options = ScanOptions.scanOptions().match(USER_SIGN_KEY + "*").count(1000).build();
+        List<String> batch = new ArrayList<>(archiveBatchSize);
+        long archived = 0;
+        try (Cursor<byte[]> cursor = stringRedisTemplate.executeWithStickyConnection(
+                (RedisCallback<Cursor<byte[]>>) connection -> connection.scan(options))) {
+            while (cursor.hasNext()) {
+                String key = new String(cursor.next(), StandardCharsets.UTF_8);
+                YearMonth month = parseMonth(key);
+                if (month == null || !isArchivable(month)) {
+                    continue;
+                }
+                batch.add(key);
+                if (batch.size() >= archiveBatchSize) {
+                    archived += archiveBatch(batch);
+                }
+            }
+            archived += archiveBatch(batch);
+            log.info("签到归档完成 共{}个bitmap", archived);
+        } catch (Exception e) {
+            log.error("签到归档失败 下次重试", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int archiveBatch(List<String> keys) {
+        if (keys.isEmpty()) {
+            return 0;
+        }
+        List<Object> results = stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object execute(RedisOperations operations) throws DataAccessException {
+                for (String key : keys) {
+                    operations.opsForValue().bitField(key, monthBits(parseMonth(key).lengthOfMonth()));
+                }
+                return null;
+            }
+        });
+        List<SignMonth> rows = new ArrayList<>(keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            long bits = firstValue((List<?>) results.get(i));
+            if (bits == 0) {
+                continue;
+            }
+            String[] parts = keys.get(i).split(":");
+            rows.add(new SignMonth()
+                    .setUserId(Long.valueOf(parts[1]))
+                    .setMonth(Integer.valueOf(parts[2]))
+                    .setSignBits(bits));
+        }
+        if (!rows.isEmpty()) {
+            signMonthMapper.upsertBatch(rows);
+        }
+        int size = keys.size();
+        stringRedisTemplate.delete(keys);
+        keys.clear();
+        return size;
+    }
+
+    /**
+     * 某月前days天的签到位 第1天在最高位 第days天在最低位
+     */
+    private long bitsOf(Long userId, YearMonth month, int days) {
+        if (days <= 0) {
+            return 0;
+        }
+        List<Long> values = stringRedisTemplate.opsForValue().bitField(key(userId, month), monthBits(days));
+        long bits = firstValue(values);
+        if (bits == 0 && isArchivable(month)) {
+            // Redis里没有 可能已经归档 归档的月份都是整月
+            SignMonth archived = selectArchived(userId, month);
+            return archived == null ? 0 : archived.getSignBits();
+        }
+        return bits;
+    }
+
+    private SignMonth selectArchived(Long userId, YearMonth month) {
+        return signMonthMapper.selectOne(new LambdaQueryWrapper<SignMonth>()
+                .eq(SignMonth::getUserId, userId)
+                .eq(SignMonth::getMonth, Integer.valueOf(month.format(MONTH_FORMAT))));
+    }
+
+    private static BitFieldSubCommands monthBits(int days) {
+        return BitFieldSubCommands.create()
+                .get(BitFieldSubCommands.BitFieldType.unsigned(days)).valueAt(0);
+    }
+
+    private static long firstValue(List<?> values) {
+        if (values == null || values.isEmpty() || values.get(0) == null) {
+            return 0;
+        }
+        return ((Number) values.get(0)).longValue();
+    }
+
+    /**
+     * 上月之前的月份才归档 连续签到跨月时上月还要从Redis读
+     */
+    private static boolean isArchivable(YearMonth month) {
+        return month.isBefore(YearMonth.now().minusMonths(1));
+    }
+
+    private static YearMonth parseMonth(String key) {
+        String[] parts = key.split(":");
+        if (parts.length != 3) {
+            return null;
+        }
+        try {
+            Long.parseLong(parts[1]);
+            return YearMonth.parse(parts[2], MONTH_FORMAT);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static String key(Long userId, YearMonth month) {
+        return USER_SIGN_KEY + userId + ":" + month.format(MONTH_FORMAT);
+    }
+}
@@ -0,0 +1,97 @@
+package com.jktt.utils;
+
+import cn.hutool.json.JSONUtil;
+import com.jktt.dto.UserDTO;
+import lombok.Data;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Base64;
+
+/**
+ * 无状态的登录令牌：base64url(claims json) + "." + base64url(HmacSHA256签名)
+ * 校验只需要本地计算签名 不访问Redis
+ */
+public class SignedSessionToken {
+
+    private static final String ALGORITHM = "HmacSHA256";
+
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private final SecretKeySpec key;
+
+    // Mac不是线程安全的 每个线程一个
+    private final ThreadLocal<Mac> macs;
+
+    public SignedSessionToken(String secret) {
+        this.key = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), ALGORITHM);
+        this.macs = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance(ALGORITHM);
+                mac.init(key);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    public String sign(Claims claims) {
+        String payload = ENCODER.encodeToString(JSONUtil.toJsonStr(claims).getBytes(StandardCharsets.UTF_8));
+        return payload + "." + ENCODER.encodeToString(mac(payload));
+    }
+
+    /**
+     * 校验签名和过期时间
+     * @return 令牌无效或已过期返回null
+     */
+    public Claims verify(String token) {
+        int dot = token.indexOf('.');
+        if (dot <= 0 || dot == token.length() - 1) {
+            return null;
+        }
+        String payload = token.substring(0, dot);
+        try {
+            byte[] signature = DECODER.decode(token.substring(dot + 1));
+            // 定长比较 防止通过响应时间猜签名
+            if (!MessageDigest.isEqual(signature, mac(payload))) {
+                return null;
+            }
+            Claims claims = JSONUtil.toBean(new String(DECODER.decode(payload), StandardCharsets.UTF_8), Claims.class);
+            if (claims.getExp() == null || claims.getExp() <= System.currentTimeMillis()) {
+                return null;
+            }
+            return claims;
+        } catch (IllegalArgumentException e) {
+            // base64格式错误
+            return null;
+        }
+    }
+
+    private byte[] mac(String payload) {
+        return macs.get().doFinal(payload.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Data
+    public static class Claims {
+        private Long id;
+        private String nickName;
+        private String icon;
+        // 过期时间（毫秒时间戳）
+        private Long exp;
+        // 令牌id 吊销时使用
+        private String jti;
+
+        public UserDTO toUserDTO() {
+            UserDTO userDTO = new UserDTO();
+            userDTO.setId(id);
+            userDTO.setNickName(nickName);
+            userDTO.setIcon(icon);
+            return userDTO;
+        }
+    }
+}
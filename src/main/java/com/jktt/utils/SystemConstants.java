@@ -5,4 +5,8 @@ public class SystemConstants {
     public static final String USER_NICK_NAME_PREFIX = "user_";
     public static final int DEFAULT_PAGE_SIZE = 5;
     public static final int MAX_PAGE_SIZE = 10;
+    public static final String SECKILL_ORDER_TOPIC = "voucher-order-topic";
+    public static final String SECKILL_ORDER_GROUP = "voucher-order-group";
+    // 发送失败或消费失败的秒杀订单 人工处理后用 /actuator/orderoutbox 重放
+    public static final String SECKILL_ORDER_DLQ_TOPIC = "voucher-order-dlq";
 }
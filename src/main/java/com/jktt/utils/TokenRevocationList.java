@@ -0,0 +1,83 @@
+package com.jktt.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.jktt.utils.RedisConstants.LOGIN_REVOKED_KEY;
+import static com.jktt.utils.RedisConstants.LOGIN_USER_TTL;
+
+/**
+ * 签名令牌的吊销列表（只在signed登录模式下使用）
+ * Redis中是一个ZSET：member为 jti:过期时间 score为吊销时间
+ * 各节点定时增量拉取到本地 校验令牌时只查本地
+ */
+@Component
+@Slf4j
+public class TokenRevocationList {
+
+    // 增量拉取时往前多取一段 容忍节点间的时钟偏差
+    private static final long SYNC_OVERLAP_MILLIS = 5000L;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Value("${hmdp.login.mode:redis}")
+    private String mode;
+
+    // jti -> 令牌过期时间 过期后的令牌本身就无效了 可以从列表中删除
+    private final Map<String, Long> revoked = new ConcurrentHashMap<>();
+
+    private volatile long lastSyncMillis = 0L;
+
+    @PostConstruct
+    public void init() {
+        // 启动时先全量加载一次 避免刚启动时放行已吊销的令牌
+        sync();
+    }
+
+    public void revoke(String jti, long expireAtMillis) {
+        revoked.put(jti, expireAtMillis);
+        stringRedisTemplate.opsForZSet()
+                .add(LOGIN_REVOKED_KEY, jti + ":" + expireAtMillis, System.currentTimeMillis());
+    }
+
+    public boolean isRevoked(String jti) {
+        return revoked.containsKey(jti);
+    }
+
+    @Scheduled(fixedDelayString = "${hmdp.login.revocation-sync-ms:1000}")
+    public void sync() {
+        if (!"signed".equalsIgnoreCase(mode)) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        try {
+            Set<String> members = stringRedisTemplate.opsForZSet()
+                    .rangeByScore(LOGIN_REVOKED_KEY, Math.max(0L, lastSyncMillis - SYNC_OVERLAP_MILLIS), Double.POSITIVE_INFINITY);
+            if (members != null) {
+                for (String member : members) {
+                    int idx = member.lastIndexOf(':');
+                    revoked.put(member.substring(0, idx), Long.parseLong(member.substring(idx + 1)));
+                }
+            }
+            lastSyncMillis = now;
+            // 吊销时间早于一个令牌有效期之前的记录 对应的令牌一定已经过期
+            stringRedisTemplate.opsForZSet().removeRangeByScore(
+                    LOGIN_REVOKED_KEY, 0, now - TimeUnit.MINUTES.toMillis(LOGIN_USER_TTL));
+        } catch (Exception e) {
+            // 下次从上一次成功的位置继续拉取
+            log.warn("同步令牌吊销列表失败", e);
+        }
+        revoked.values().removeIf(exp -> exp <= now);
+    }
+}
@@ -4,15 +4,16 @@ import cn.hutool.core.util.BooleanUtil;
 import cn.hutool.core.util.StrUtil;
 import cn.hutool.json.JSONObject;
 import cn.hutool.json.JSONUtil;
-import com.github.benmanes.caffeine.cache.Cache;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.Resource;
 import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 
@@ -27,111 +28,222 @@ public class TwoLevelCacheClient {
     private StringRedisTemplate stringRedisTemplate;
 
     @Resource
-    private Cache<String, String> localCache;
+    private LocalCacheManager localCacheManager;
 
-    // 缓存重建线程池
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
+    @Resource
+    private CacheInvalidationBus cacheInvalidationBus;
+
+    @Resource
+    private IdBloomFilter idBloomFilter;
+
+    @Resource
+    private CacheMetrics cacheMetrics;
+
+    // 共用的缓存重建调度 有界队列 同key去重
+    @Resource
+    private CacheRebuildScheduler cacheRebuildScheduler;
+
+    // 同一个key的并发回源在JVM内合并
+    private final SingleFlight singleFlight = new SingleFlight();
 
     public <R, ID> R queryWithPassThrough(
             String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long redisTtl, TimeUnit redisUnit) {
+        // 0.布隆过滤器判定不存在 不查缓存也不查数据库
+        if (!idBloomFilter.mightContainKey(keyPrefix, id)) {
+            return null;
+        }
         String key = keyPrefix + id;
 
-        String localJson = localCache.getIfPresent(key);
-        if (StrUtil.isNotBlank(localJson)) {
-            return JSONUtil.toBean(localJson, type);
-        }
-        if (localJson != null) {
-            return null;
+        // 1.优先查 L1 命中空值时value为null
+        LocalCacheEntry local = localCacheManager.get(key, type, false);
+        if (local != null) {
+            cacheMetrics.l1Hit(keyPrefix);
+            return type.cast(local.getValue());
         }
+        cacheMetrics.l1Miss(keyPrefix);
 
+        // 2.L1 miss -> 查 L2
         String redisJson = stringRedisTemplate.opsForValue().get(key);
         if (StrUtil.isNotBlank(redisJson)) {
-            localCache.put(key, redisJson);
-            return JSONUtil.toBean(redisJson, type);
+            cacheMetrics.l2Hit(keyPrefix);
+            R r = JSONUtil.toBean(redisJson, type);
+            localCacheManager.put(key, type, r, LocalCacheEntry.NEVER_EXPIRE, redisJson);
+            return r;
         }
         if (redisJson != null) {
-            localCache.put(key, "");
+            cacheMetrics.l2NullHit(keyPrefix);
+            localCacheManager.putNull(key, type);
             return null;
         }
+        cacheMetrics.l2Miss(keyPrefix);
 
-        R r = dbFallback.apply(id);
-        if (r == null) {
-            stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
-            localCache.put(key, "");
-            return null;
-        }
+        // 3.查数据库 同一个key的并发请求只有一个线程查库 其余线程等待结果
+        return singleFlight.execute(key, () -> {
+            R r = cacheMetrics.recordDbFallback(keyPrefix, () -> dbFallback.apply(id));
+            if (r == null) {
+                stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
+                localCacheManager.putNull(key, type);
+                return null;
+            }
 
-        String value = JSONUtil.toJsonStr(r);
-        stringRedisTemplate.opsForValue().set(key, value, redisTtl, redisUnit);
-        localCache.put(key, value);
-        return r;
+            String value = JSONUtil.toJsonStr(r);
+            stringRedisTemplate.opsForValue().set(key, value, redisTtl, redisUnit);
+            localCacheManager.put(key, type, r, LocalCacheEntry.NEVER_EXPIRE, value);
+            return r;
+        });
     }
 
     public <R, ID> R queryWithLogicalExpire(
             String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit timeUnit) {
+        // 0.布隆过滤器判定不存在 直接返回
+        if (!idBloomFilter.mightContainKey(keyPrefix, id)) {
+            return null;
+        }
         String key = keyPrefix + id;
 
         // 1.优先查 L1（Caffeine）
-        String json = localCache.getIfPresent(key);
-        if (StrUtil.isNotBlank(json)) {
-            return handleLogicalExpireJson(key, json, type, dbFallback, time, timeUnit, id);
+        LocalCacheEntry local = localCacheManager.get(key, type, true);
+        if (local == null) {
+            cacheMetrics.l1Miss(keyPrefix);
+            // 2. L1 miss -> 查 L2（Redis）
+            String redisJson = stringRedisTemplate.opsForValue().get(key);
+            if (StrUtil.isBlank(redisJson)) {
+                cacheMetrics.l2Miss(keyPrefix);
+                return null;
+            }
+            cacheMetrics.l2Hit(keyPrefix);
+            // 3.反序列化后回填 L1
+            RedisData redisData = JSONUtil.toBean(redisJson, RedisData.class);
+            // 反序列化时需要拿 data 对象
+            R r = JSONUtil.toBean((JSONObject) redisData.getData(), type);
+            local = localCacheManager.put(
+                    key, type, r, LocalCacheEntry.toMillis(redisData.getExpireTime()), redisJson);
+        } else {
+            cacheMetrics.l1Hit(keyPrefix);
         }
-        if (json != null) {
-            // L1 命中了空值（""）-> 说明逻辑上就是不存在
+        if (local.getValue() == null) {
+            // L1 命中了空值 -> 说明逻辑上就是不存在
             return null;
         }
 
-        // 2. L1 miss -> 查 L2（Redis）
-        String redisJson = stringRedisTemplate.opsForValue().get(key);
-        if (StrUtil.isBlank(redisJson)) {
-            return null;
+        R r = type.cast(local.getValue());
+        if (!local.isExpired()) {
+            return r;
         }
 
-        // 3.回填 L1
-        localCache.put(key, redisJson);
-        return handleLogicalExpireJson(key, redisJson, type, dbFallback, time, timeUnit, id);
+        // 过期：异步重建（类似 CacheClient 的逻辑） 本次先返回旧数据
+        cacheMetrics.staleServe(keyPrefix);
+        rebuildAsync(keyPrefix, key, id, dbFallback, time, timeUnit);
+        return r;
     }
 
-    private <R, ID> R handleLogicalExpireJson(
-            String key, String json, Class<R> type,
-            Function<ID, R> dbFallback, Long time, TimeUnit timeUnit, ID id) {
-        RedisData redisData = JSONUtil.toBean(json, RedisData.class);
-        LocalDateTime expireTime = redisData.getExpireTime();
+    /**
+     * 批量查询逻辑过期的缓存 用于列表页
+     * 与queryWithLogicalExpire不同 Redis中不存在的key不会直接返回null 而是用batchDbFallback一次查库并写入缓存
+     * @param batchDbFallback 按id批量查库 返回 id -> 数据
+     * @return id -> 数据 不存在的id不在结果中
+     */
+    public <R, ID> Map<ID, R> queryBatchWithLogicalExpire(
+            String keyPrefix, List<ID> ids, Class<R> type, Function<ID, R> dbFallback,
+            Function<List<ID>, Map<ID, R>> batchDbFallback, Long time, TimeUnit timeUnit) {
+        Map<ID, R> result = new HashMap<>(ids.size() * 2);
+        // 1.逐个查 L1
+        List<ID> misses = new ArrayList<>();
+        for (ID id : ids) {
+            if (!idBloomFilter.mightContainKey(keyPrefix, id)) {
+                continue;
+            }
+            LocalCacheEntry local = localCacheManager.get(keyPrefix + id, type, true);
+            if (local == null) {
+                cacheMetrics.l1Miss(keyPrefix);
+                misses.add(id);
+                continue;
+            }
+            cacheMetrics.l1Hit(keyPrefix);
+            collect(keyPrefix, id, local, type, dbFallback, time, timeUnit, result);
+        }
+        if (misses.isEmpty()) {
+            return result;
+        }
 
-        // 反序列化时需要拿 data 对象
-        JSONObject data = (JSONObject) redisData.getData();
-        R r = JSONUtil.toBean(data, type);
+        // 2.L1 miss 的一次 MGET
+        List<String> keys = new ArrayList<>(misses.size());
+        misses.forEach(id -> keys.add(keyPrefix + id));
+        List<String> jsons = stringRedisTemplate.opsForValue().multiGet(keys);
+        List<ID> dbIds = new ArrayList<>();
+        for (int i = 0; i < misses.size(); i++) {
+            String redisJson = jsons == null ? null : jsons.get(i);
+            if (StrUtil.isBlank(redisJson)) {
+                cacheMetrics.l2Miss(keyPrefix);
+                dbIds.add(misses.get(i));
+                continue;
+            }
+            cacheMetrics.l2Hit(keyPrefix);
+            RedisData redisData = JSONUtil.toBean(redisJson, RedisData.class);
+            R r = JSONUtil.toBean((JSONObject) redisData.getData(), type);
+            LocalCacheEntry local = localCacheManager.put(
+                    keys.get(i), type, r, LocalCacheEntry.toMillis(redisData.getExpireTime()), redisJson);
+            collect(keyPrefix, misses.get(i), local, type, dbFallback, time, timeUnit, result);
+        }
+        if (dbIds.isEmpty()) {
+            return result;
+        }
 
-        if (expireTime != null && expireTime.isAfter(LocalDateTime.now())) {
-            return r;
+        // 3.Redis 也没有的一次查库 并写入两级缓存
+        Map<ID, R> loaded = cacheMetrics.recordDbFallback(keyPrefix, () -> batchDbFallback.apply(dbIds));
+        loaded.forEach((id, r) -> {
+            this.setWithLogicalExpire(keyPrefix + id, r, time, timeUnit);
+            result.put(id, r);
+        });
+        return result;
+    }
+
+    private <R, ID> void collect(String keyPrefix, ID id, LocalCacheEntry local, Class<R> type,
+                                 Function<ID, R> dbFallback, Long time, TimeUnit timeUnit, Map<ID, R> result) {
+        if (local.getValue() == null) {
+            return;
+        }
+        if (local.isExpired()) {
+            cacheMetrics.staleServe(keyPrefix);
+            rebuildAsync(keyPrefix, keyPrefix + id, id, dbFallback, time, timeUnit);
         }
+        result.put(id, type.cast(local.getValue()));
+    }
 
-        // 过期：异步重建（类似 CacheClient 的逻辑）
+    private <R, ID> void rebuildAsync(
+            String keyPrefix, String key, ID id, Function<ID, R> dbFallback, Long time, TimeUnit timeUnit) {
+        // JVM内同一个key只提交一次 Redis锁只负责跨节点互斥
         String lockKey = LOCK_SHOP_KEY + id;
-        if (tryLock(lockKey)) {
-            CACHE_REBUILD_EXECUTOR.submit(() -> {
-                try {
-                    R dbR = dbFallback.apply(id);
-                    this.setWithLogicalExpire(key, dbR, time, timeUnit);
-                } catch (Exception e) {
-                    log.error("缓存重建异常", e);
-                } finally {
-                    unlock(lockKey);
-                }
-            });
-        }
-        return r;
+        // 队列满或正在关闭时不会提交 本次照常返回旧数据
+        cacheRebuildScheduler.submit(keyPrefix, key, () -> {
+            boolean locked = tryLock(lockKey);
+            cacheMetrics.rebuildLock(keyPrefix, locked);
+            if (!locked) {
+                return;
+            }
+            try {
+                R dbR = cacheMetrics.recordDbFallback(keyPrefix, () -> dbFallback.apply(id));
+                this.setWithLogicalExpire(key, dbR, time, timeUnit);
+            } catch (Exception e) {
+                log.error("缓存重建异常", e);
+            } finally {
+                unlock(lockKey);
+            }
+        });
     }
 
     public void invalidate(String key) {
-        localCache.invalidate(key);
+        localCacheManager.invalidate(key);
         stringRedisTemplate.delete(key);
+        // 通知其它节点删除各自的L1
+        cacheInvalidationBus.publish(key);
     }
 
     public void set(String key, Object value, Long redisTtl, TimeUnit redisUnit) {
         String json = JSONUtil.toJsonStr(value);
         stringRedisTemplate.opsForValue().set(key, json, redisTtl, redisUnit);
-        localCache.put(key, json);
+        localCacheManager.put(key, value.getClass(), value, LocalCacheEntry.NEVER_EXPIRE, json);
+        cacheInvalidationBus.publish(key);
     }
 
     public void setWithLogicalExpire(String key, Object value, Long time, TimeUnit timeUnit) {
@@ -142,7 +254,15 @@ public class TwoLevelCacheClient {
         String json = JSONUtil.toJsonStr(redisData);
         // 注意：逻辑过期时间在 json 内部，不使用 redis TTL
         stringRedisTemplate.opsForValue().set(key, json);
-        localCache.put(key, json);
+        if (value == null) {
+            // 数据库里已经不存在 L1先删掉 下次从L2读
+            localCacheManager.invalidate(key);
+        } else {
+            localCacheManager.put(
+                    key, value.getClass(), value, LocalCacheEntry.toMillis(redisData.getExpireTime()), json);
+        }
+        // 其它节点的L1还是旧数据 让它们回源到L2
+        cacheInvalidationBus.publish(key);
     }
 
     private boolean tryLock(String key) {
@@ -0,0 +1,157 @@
+package com.jktt.utils;
+
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONUtil;
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.jktt.dto.UserDTO;
+import com.jktt.entity.User;
+import com.jktt.mapper.UserMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import static com.jktt.utils.RedisConstants.CACHE_USER_KEY;
+
+/**
+ * 批量查询用户的展示信息（昵称、头像）
+ * 一页数据里的作者id去重后一起查：L1 -> Redis MGET -> 数据库一次IN查询 查到的再用pipeline回填Redis
+ * 博客、评论等需要作者信息的地方都用fill填充 避免逐条getById
+ * 修改用户后调用invalidate 删除Redis并广播各节点删除L1
+ * 不经过invalidate的修改（条件更新、直接调用mapper）靠过期恢复 Redis和L1都只保留ttl-seconds 最多旧两个ttl
+ */
+@Component
+public class UserProfileLoader {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private LocalCacheManager localCacheManager;
+
+    @Resource
+    private CacheMetrics cacheMetrics;
+
+    @Resource
+    private UserMapper userMapper;
+
+    @Resource
+    private TwoLevelCacheClient twoLevelCacheClient;
+
+    // 展示信息在Redis和L1中各自的有效期
+    @Value("${hmdp.cache.user.ttl-seconds:600}")
+    private long ttlSeconds;
+
+    /**
+     * 删除用户的展示信息缓存 用户昵称、头像修改后调用
+     */
+    public void invalidate(Long userId) {
+        twoLevelCacheClient.invalidate(CACHE_USER_KEY + userId);
+    }
+
+    /**
+     * 给每条记录填充作者信息
+     * @param userIdGetter 取记录的作者id
+     * @param setter 把查到的用户写回记录 用户不存在时不调用
+     */
+    public <T> void fill(Collection<T> records, Function<T, Long> userIdGetter, BiConsumer<T, UserDTO> setter) {
+        if (records == null || records.isEmpty()) {
+            return;
+        }
+        List<Long> userIds = new ArrayList<>(records.size());
+        records.forEach(record -> userIds.add(userIdGetter.apply(record)));
+        Map<Long, UserDTO> users = loadAll(userIds);
+        records.forEach(record -> {
+            UserDTO user = users.get(userIdGetter.apply(record));
+            if (user != null) {
+                setter.accept(record, user);
+            }
+        });
+    }
+
+    /**
+     * 批量查询用户
+     * @return id -> UserDTO 不存在的id不在结果中 返回的对象在请求间共享 不要修改
+     */
+    public Map<Long, UserDTO> loadAll(Collection<Long> userIds) {
+        Map<Long, UserDTO> result = new HashMap<>(userIds.size() * 2);
+        // 1.去重后先查L1
+        List<Long> misses = new ArrayList<>();
+        for (Long id : new LinkedHashSet<>(userIds)) {
+            if (id == null) {
+                continue;
+            }
+            LocalCacheEntry local = localCacheManager.get(CACHE_USER_KEY + id, UserDTO.class, false);
+            if (local != null && local.getValue() != null && !local.isExpired()) {
+                cacheMetrics.l1Hit(CACHE_USER_KEY);
+                result.put(id, (UserDTO) local.getValue());
+            } else {
+                cacheMetrics.l1Miss(CACHE_USER_KEY);
+                misses.add(id);
+            }
+        }
+        if (misses.isEmpty()) {
+            return result;
+        }
+
+        // 2.L1没有的一次MGET
+        List<String> keys = new ArrayList<>(misses.size());
+        misses.forEach(id -> keys.add(CACHE_USER_KEY + id));
+        List<String> jsons = stringRedisTemplate.opsForValue().multiGet(keys);
+        long expireAt = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(ttlSeconds);
+        List<Long> dbIds = new ArrayList<>();
+        for (int i = 0; i < misses.size(); i++) {
+            String json = jsons == null ? null : jsons.get(i);
+            if (StrUtil.isBlank(json)) {
+                cacheMetrics.l2Miss(CACHE_USER_KEY);
+                dbIds.add(misses.get(i));
+                continue;
+            }
+            cacheMetrics.l2Hit(CACHE_USER_KEY);
+            UserDTO user = JSONUtil.toBean(json, UserDTO.class);
+            localCacheManager.put(keys.get(i), UserDTO.class, user, expireAt, json);
+            result.put(misses.get(i), user);
+        }
+        if (dbIds.isEmpty()) {
+            return result;
+        }
+
+        // 3.Redis也没有的 一条SQL查出来 只取展示需要的字段
+        List<User> users = cacheMetrics.recordDbFallback(CACHE_USER_KEY, () -> userMapper.selectList(
+                new LambdaQueryWrapper<User>()
+                        .select(User::getId, User::getNickName, User::getIcon)
+                        .in(User::getId, dbIds)));
+        if (users.isEmpty()) {
+            return result;
+        }
+        Map<String, String> toCache = new HashMap<>(users.size() * 2);
+        for (User u : users) {
+            UserDTO user = BeanUtil.copyProperties(u, UserDTO.class);
+            String key = CACHE_USER_KEY + u.getId();
+            String json = JSONUtil.toJsonStr(user);
+            toCache.put(key, json);
+            localCacheManager.put(key, UserDTO.class, user, expireAt, json);
+            result.put(u.getId(), user);
+        }
+        // 4.回填Redis 每个key都要带TTL 所以用pipeline代替MSET
+        stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object execute(RedisOperations operations) throws DataAccessException {
+                toCache.forEach((key, json) ->
+                        operations.opsForValue().set(key, json, ttlSeconds, TimeUnit.SECONDS));
+                return null;
+            }
+        });
+        return result;
+    }
+}
@@ -0,0 +1,27 @@
+-- 按数据库重建好的临时热榜
+local tmpKey = KEYS[1];
+-- 热榜 blog:hot
+local hotKey = KEYS[2];
+-- 还没写回数据库的点赞数增量 blog:liked:delta 和 blog:liked:delta:flushing
+local deltaKey = KEYS[3];
+local flushingKey = KEYS[4];
+
+-- 数据库中的点赞数不包含还没写回的增量 重建期间的点赞也只在增量中 合并到临时热榜
+for _, key in ipairs({deltaKey, flushingKey}) do
+    local entries = redis.call('HGETALL', key);
+    for i = 1, #entries, 2 do
+        local delta = tonumber(entries[i + 1]);
+        -- 只给临时热榜中的博客加分 与点赞时的ZINCRBY规则一致
+        if (delta ~= 0 and redis.call('ZSCORE', tmpKey, entries[i])) then
+            redis.call('ZINCRBY', tmpKey, delta, entries[i]);
+        end
+    end
+end
+
+-- 没有博客时临时热榜不存在
+if (redis.call('EXISTS', tmpKey) == 0) then
+    redis.call('DEL', hotKey);
+    return 0;
+end
+redis.call('RENAME', tmpKey, hotKey);
+return 1;
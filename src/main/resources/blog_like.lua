@@ -0,0 +1,22 @@
+-- 点赞集合 blog:liked:{blogId} member为用户id score为点赞时间
+local likedKey = KEYS[1];
+-- 待写回数据库的点赞数增量 hash field为博客id
+local deltaKey = KEYS[2];
+-- 用户id
+local userId = ARGV[1];
+-- 当前时间戳
+local now = ARGV[2];
+-- 博客id
+local blogId = ARGV[3];
+
+-- 已经点过赞 取消点赞，返回-1
+if (redis.call('ZSCORE', likedKey, userId)) then
+    redis.call('ZREM', likedKey, userId);
+    redis.call('HINCRBY', deltaKey, blogId, -1);
+    return -1;
+end
+
+-- 没有点过赞 点赞，返回1
+redis.call('ZADD', likedKey, now, userId);
+redis.call('HINCRBY', deltaKey, blogId, 1);
+return 1;
@@ -0,0 +1,28 @@
+-- 待写回数据库的点赞数增量
+local deltaKey = KEYS[1];
+-- 正在写回的增量
+local flushingKey = KEYS[2];
+-- 本轮写回的id 与flushing一起创建 一起删除
+local flushIdKey = KEYS[3];
+-- 新的写回id
+local flushId = ARGV[1];
+
+-- 上一轮没写完 沿用原来的id 批次id不变 已写入的批次不会重复累加
+if (redis.call('EXISTS', flushingKey) == 1) then
+    local oldId = redis.call('GET', flushIdKey);
+    if (oldId) then
+        return oldId;
+    end
+    redis.call('SET', flushIdKey, flushId);
+    return flushId;
+end
+
+-- 没有新的增量
+if (redis.call('EXISTS', deltaKey) == 0) then
+    return false;
+end
+
+-- 增量改名为flushing 之后的点赞写入新的hash
+redis.call('RENAME', deltaKey, flushingKey);
+redis.call('SET', flushIdKey, flushId);
+return flushId;
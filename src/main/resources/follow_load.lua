@@ -0,0 +1,27 @@
+-- 用户关注的人的集合 follows:{userId}
+local followsKey = KEYS[1];
+-- 关注关系的版本号 follows:version:{userId}
+local versionKey = KEYS[2];
+-- 从数据库加载好的临时集合
+local loadingKey = KEYS[3];
+-- 查询数据库前读到的版本号 没有版本号时为空串
+local version = ARGV[1];
+-- 集合的过期时间（秒）
+local ttl = ARGV[2];
+
+-- 查询数据库之后有关注或取关 加载的集合可能是旧的 返回0
+local current = redis.call('GET', versionKey);
+if ((current or '') ~= version) then
+    return 0;
+end
+
+-- 其它请求已经加载好 之后的修改也已经同步到集合中
+if (redis.call('EXISTS', followsKey) == 1) then
+    redis.call('DEL', loadingKey);
+    return 1;
+end
+
+-- 整个集合一次换上去 读取方不会看到加载了一半的集合
+redis.call('RENAME', loadingKey, followsKey);
+redis.call('EXPIRE', followsKey, ttl);
+return 1;
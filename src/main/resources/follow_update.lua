@@ -0,0 +1,22 @@
+-- 用户关注的人的集合 follows:{userId}
+local followsKey = KEYS[1];
+-- 关注关系的版本号 follows:version:{userId}
+local versionKey = KEYS[2];
+-- SADD或SREM
+local op = ARGV[1];
+-- 被关注的用户id
+local followUserId = ARGV[2];
+-- 集合和版本号的过期时间（秒）
+local ttl = ARGV[3];
+
+-- 版本号加一 正在从数据库加载的集合可能没包含这次修改 加载完成时发现版本号变了就放弃
+redis.call('INCR', versionKey);
+redis.call('EXPIRE', versionKey, ttl);
+
+-- 集合未加载时不写 下次读取会从数据库完整加载
+if (redis.call('EXISTS', followsKey) == 0) then
+    return 0;
+end
+redis.call(op, followsKey, followUserId);
+redis.call('EXPIRE', followsKey, ttl);
+return 1;
@@ -1,15 +1,16 @@
--- 优惠券id
-local voucherId = ARGV[1];
+-- 库存的key 未分片时为 seckill:stock:{voucherId}，分片时为 seckill:stock:{voucherId:shard}
+local stockKey = KEYS[1];
+-- 订单key 与库存key在同一个分片（hash tag相同）
+local orderKey = KEYS[2];
 -- 用户id
-local userId = ARGV[2];
-
--- 库存的key
-local stockKey = 'seckill:stock:' .. voucherId;
--- 订单key
-local orderKey = 'seckill:order:' .. voucherId;
+local userId = ARGV[1];
 
 -- 判断库存是否充足 get stockKey > 0 ?
 local stock = redis.call('GET', stockKey);
+if (stock == false) then
+    -- 库存未加载（新建时写入失败、Redis数据丢失），不是售罄，返回3
+    return 3;
+end
 if (tonumber(stock) <= 0) then
     -- 库存不足，返回1
     return 1;
@@ -0,0 +1,213 @@
+package com.jktt.utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OrderOutboxTest {
+
+    // 每条记录 8字节头 + 7字节订单 一个段放4条 第5条切换到下一个段
+    private static final int SEGMENT_BYTES = 64;
+    private static final int RECORD_BYTES = 15;
+
+    @TempDir
+    Path dir;
+
+    private OrderOutbox outbox;
+
+    @AfterEach
+    void tearDown() throws IOException {
+        if (outbox != null) {
+            outbox.close();
+        }
+    }
+
+    @Test
+    void readsAcrossSegmentsAndResumesFromCheckpoint() throws IOException {
+        outbox = open();
+        List<String> orders = orders(0, 10);
+        for (String order : orders) {
+            outbox.append(order);
+        }
+        assertEquals(3, outbox.segmentCount());
+        OrderOutbox.Batch first = outbox.read(outbox.checkpoint(), 6);
+        assertEquals(orders.subList(0, 6), first.getPayloads());
+        outbox.commit(first.getEnd());
+        assertTrue(outbox.isPending());
+        // 第一段已经发送完 删除
+        assertEquals(2, outbox.segmentCount());
+        assertFalse(Files.exists(segment(0)));
+
+        outbox = reopen();
+        assertEquals(first.getEnd(), outbox.checkpoint());
+        OrderOutbox.Batch rest = outbox.read(outbox.checkpoint(), 100);
+        assertEquals(orders.subList(6, 10), rest.getPayloads());
+        assertEquals(outbox.published(), rest.getEnd());
+        outbox.commit(rest.getEnd());
+        assertFalse(outbox.isPending());
+    }
+
+    @Test
+    void tornRecordIsTruncatedAndOverwritten() throws IOException {
+        outbox = open();
+        List<String> orders = orders(0, 3);
+        for (String order : orders) {
+            outbox.append(order);
+        }
+        outbox.close();
+        // 第三条的CRC不对 模拟只写回了一部分
+        try (RandomAccessFile file = new RandomAccessFile(segment(0).toFile(), "rw")) {
+            file.seek(2 * RECORD_BYTES + Integer.BYTES);
+            file.writeInt(0xBADC0DE);
+        }
+
+        outbox = open();
+        assertEquals(2 * RECORD_BYTES, outbox.published());
+        assertEquals(orders.subList(0, 2), outbox.read(0, 100).getPayloads());
+        // 从不完整的记录处继续写入
+        outbox.append("order-9");
+        assertEquals(Arrays.asList("order-0", "order-1", "order-9"), outbox.read(0, 100).getPayloads());
+
+        outbox = reopen();
+        assertEquals(Arrays.asList("order-0", "order-1", "order-9"), outbox.read(0, 100).getPayloads());
+    }
+
+    @Test
+    void crashAfterRollBeforeEndMarker() throws IOException {
+        outbox = open();
+        List<String> orders = orders(0, 4);
+        for (String order : orders) {
+            outbox.append(order);
+        }
+        assertEquals(1, outbox.segmentCount());
+        outbox.close();
+        // 下一个段已经创建 但上一个段还没写结束标记
+        Files.write(segment(1), new byte[SEGMENT_BYTES]);
+
+        outbox = open();
+        assertEquals(2, outbox.segmentCount());
+        assertEquals(1L << 32, outbox.published());
+        OrderOutbox.Batch batch = outbox.read(0, 100);
+        assertEquals(orders, batch.getPayloads());
+        assertEquals(1L << 32, batch.getEnd());
+        outbox.append("order-4");
+        assertEquals(Collections.singletonList("order-4"), outbox.read(batch.getEnd(), 100).getPayloads());
+        assertEquals(Arrays.asList("order-0", "order-1", "order-2", "order-3", "order-4"),
+                outbox.read(0, 100).getPayloads());
+    }
+
+    @Test
+    void segmentsBeforeCheckpointAreDeletedOnOpen() throws IOException {
+        outbox = open();
+        for (String order : orders(0, 10)) {
+            outbox.append(order);
+        }
+        OrderOutbox.Batch batch = outbox.read(0, 9);
+        outbox.close();
+        // checkpoint已经写入 删除段文件之前崩溃
+        writeCheckpoint(batch.getEnd());
+
+        outbox = open();
+        assertFalse(Files.exists(segment(0)));
+        assertFalse(Files.exists(segment(1)));
+        assertEquals(1, outbox.segmentCount());
+        assertEquals(batch.getEnd(), outbox.checkpoint());
+        assertEquals(Collections.singletonList("order-9"), outbox.read(outbox.checkpoint(), 100).getPayloads());
+    }
+
+    @Test
+    void checkpointPastDeletedSegments() throws IOException {
+        outbox = open();
+        for (String order : orders(0, 10)) {
+            outbox.append(order);
+        }
+        OrderOutbox.Batch batch = outbox.read(0, 100);
+        outbox.commit(batch.getEnd());
+        outbox.close();
+        // checkpoint所在的段也已经不存在
+        for (long segment = 0; segment < 3; segment++) {
+            Files.deleteIfExists(segment(segment));
+        }
+
+        outbox = open();
+        assertEquals(1, outbox.segmentCount());
+        // 从下一个段开始写 checkpoint推进到它的开头
+        assertEquals(3L << 32, outbox.checkpoint());
+        assertEquals(outbox.checkpoint(), outbox.published());
+        assertFalse(outbox.isPending());
+        outbox.append("order-10");
+        assertTrue(Files.exists(segment(3)));
+        assertEquals(Collections.singletonList("order-10"), outbox.read(outbox.checkpoint(), 100).getPayloads());
+    }
+
+    @Test
+    void checkpointSegmentMissingStartsFromFirstSegment() throws IOException {
+        outbox = open();
+        for (String order : orders(0, 10)) {
+            outbox.append(order);
+        }
+        outbox.close();
+        // 还没发送的段被删除 只能从剩下的第一个段继续
+        Files.delete(segment(0));
+        Files.delete(segment(1));
+
+        outbox = open();
+        assertEquals(2L << 32, outbox.checkpoint());
+        assertEquals(Arrays.asList("order-8", "order-9"), outbox.read(outbox.checkpoint(), 100).getPayloads());
+    }
+
+    @Test
+    void recordLargerThanSegmentIsRejected() {
+        outbox = open();
+        char[] payload = new char[SEGMENT_BYTES];
+        Arrays.fill(payload, 'x');
+        assertThrows(IllegalArgumentException.class, () -> outbox.append(new String(payload)));
+        assertFalse(outbox.isPending());
+    }
+
+    private OrderOutbox reopen() throws IOException {
+        outbox.close();
+        return open();
+    }
+
+    private OrderOutbox open() {
+        OrderOutbox opened = new OrderOutbox();
+        ReflectionTestUtils.setField(opened, "dir", dir.toString());
+        ReflectionTestUtils.setField(opened, "segmentBytes", SEGMENT_BYTES);
+        try {
+            opened.open();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return opened;
+    }
+
+    private void writeCheckpoint(long position) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(dir.resolve("checkpoint").toFile(), "rw")) {
+            file.writeLong(position);
+        }
+    }
+
+    private Path segment(long segment) {
+        return dir.resolve(String.format("%020d.log", segment));
+    }
+
+    private static List<String> orders(int from, int to) {
+        String[] orders = new String[to - from];
+        for (int i = from; i < to; i++) {
+            orders[i - from] = "order-" + i;
+        }
+        return Arrays.asList(orders);
+    }
+}
@@ -0,0 +1,125 @@
+package com.jktt.utils;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class RedisIdWorkerTest {
+
+    private static final long COUNT_MASK = (1L << 32) - 1;
+
+    // key -> 计数器 模拟INCR/INCRBY
+    private final Map<String, AtomicLong> counters = new ConcurrentHashMap<>();
+    private final AtomicInteger leases = new AtomicInteger();
+    private RedisIdWorker idWorker;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        StringRedisTemplate redis = mock(StringRedisTemplate.class);
+        ValueOperations<String, String> ops = mock(ValueOperations.class);
+        when(redis.opsForValue()).thenReturn(ops);
+        when(ops.increment(anyString())).thenAnswer(invocation -> {
+            leases.incrementAndGet();
+            return counter(invocation.getArgument(0)).incrementAndGet();
+        });
+        when(ops.increment(anyString(), anyLong())).thenAnswer(invocation -> {
+            leases.incrementAndGet();
+            long delta = invocation.getArgument(1);
+            return counter(invocation.getArgument(0)).addAndGet(delta);
+        });
+        idWorker = new RedisIdWorker();
+        ReflectionTestUtils.setField(idWorker, "stringRedisTemplate", redis);
+        ReflectionTestUtils.setField(idWorker, "segmentSize", 10);
+        ReflectionTestUtils.setField(idWorker, "prefetchRatio", 0.2);
+    }
+
+    @Test
+    void segmentsAreContiguousWithinOneThread() {
+        List<Long> counts = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            counts.add(idWorker.nextID("order") & COUNT_MASK);
+        }
+        for (int i = 0; i < counts.size(); i++) {
+            assertEquals(i + 1, counts.get(i));
+        }
+        // 每10个租用一次 用到第3个号段 预取最多多租一个
+        assertTrue(leases.get() >= 3 && leases.get() <= 4, "leases=" + leases.get());
+    }
+
+    @Test
+    void concurrentIdsAreUnique() throws Exception {
+        int threads = 8;
+        int perThread = 2000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<List<Long>>> futures = new ArrayList<>();
+            CountDownLatch start = new CountDownLatch(1);
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    List<Long> ids = new ArrayList<>(perThread);
+                    for (int i = 0; i < perThread; i++) {
+                        ids.add(idWorker.nextID("order"));
+                    }
+                    return ids;
+                }));
+            }
+            start.countDown();
+            Set<Long> counts = new HashSet<>();
+            for (Future<List<Long>> future : futures) {
+                for (Long id : future.get(30, TimeUnit.SECONDS)) {
+                    // 同一秒内的序列号也不能重复 直接比较序列号部分
+                    assertTrue(counts.add(id & COUNT_MASK), "duplicate id " + id);
+                }
+            }
+            assertEquals(threads * perThread, counts.size());
+            // 发出的序列号都在已租用的范围内
+            long leased = counters.values().iterator().next().get();
+            assertTrue(Collections.max(counts) <= leased);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void prefixesHaveSeparateCounters() {
+        assertEquals(1, idWorker.nextID("order") & COUNT_MASK);
+        assertEquals(1, idWorker.nextID("blog") & COUNT_MASK);
+        assertEquals(2, idWorker.nextID("order") & COUNT_MASK);
+    }
+
+    @Test
+    void segmentSizeOneFallsBackToIncr() {
+        ReflectionTestUtils.setField(idWorker, "segmentSize", 1);
+        for (int i = 1; i <= 5; i++) {
+            assertEquals(i, idWorker.nextID("order") & COUNT_MASK);
+        }
+        assertEquals(5, leases.get());
+    }
+
+    @Test
+    void timestampIsInHighBits() {
+        long id = idWorker.nextID("order");
+        long seconds = id >>> 32;
+        assertTrue(seconds > 0);
+        assertTrue(idWorker.nextID("order") >>> 32 >= seconds);
+    }
+
+    private AtomicLong counter(String key) {
+        return counters.computeIfAbsent(key, k -> new AtomicLong());
+    }
+}
@@ -0,0 +1,43 @@
+package com.jktt.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ScrollCursorTest {
+
+    @Test
+    void roundTrip() {
+        String cursor = ScrollCursor.encode(1L, 3L, -7L, Long.MAX_VALUE);
+        assertArrayEquals(new long[]{1L, 3L, -7L, Long.MAX_VALUE}, ScrollCursor.decode(cursor, 4));
+        assertArrayEquals(new long[]{1L, 3L, -7L, Long.MAX_VALUE}, ScrollCursor.decode(cursor));
+    }
+
+    @Test
+    void blankCursorIsFirstPage() {
+        assertEquals(0, ScrollCursor.decode("", 1).length);
+        assertEquals(0, ScrollCursor.decode(null, 4).length);
+        assertEquals(0, ScrollCursor.decode("  ").length);
+    }
+
+    @Test
+    void wrongLengthIsInvalid() {
+        String cursor = ScrollCursor.encode(0L, 42L);
+        assertNull(ScrollCursor.decode(cursor, 1));
+        assertNull(ScrollCursor.decode(cursor, 5));
+        assertArrayEquals(new long[]{0L, 42L}, ScrollCursor.decode(cursor, 2));
+    }
+
+    @Test
+    void garbageIsInvalid() {
+        assertNull(ScrollCursor.decode("%%%", 1));
+        assertNull(ScrollCursor.decode("%%%"));
+        String notNumbers = Base64.getUrlEncoder().withoutPadding()
+                .encodeToString("a,b".getBytes(StandardCharsets.UTF_8));
+        assertNull(ScrollCursor.decode(notNumbers, 2));
+        assertNull(ScrollCursor.decode(notNumbers));
+    }
+}
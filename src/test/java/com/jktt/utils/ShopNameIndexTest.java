@@ -0,0 +1,94 @@
+package com.jktt.utils;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShopNameIndexTest {
+
+    private ShopNameIndex index;
+
+    @BeforeEach
+    void setUp() {
+        index = new ShopNameIndex();
+        index.put(1L, "星巴克咖啡");
+        index.put(2L, "咖啡");
+        index.put(3L, "瑞幸咖啡店");
+        index.put(4L, "咖啡馆");
+        index.put(5L, "茶馆");
+        index.put(6L, "咖啡厅");
+        index.put(7L, "Luckin 咖啡");
+    }
+
+    @Test
+    void ranksExactThenPrefixThenPositionThenLengthThenId() {
+        // 完全相同 > 开头匹配(长度相同按id) > 位置靠前 > 名称较短
+        assertEquals(Arrays.asList(2L, 4L, 6L, 3L, 1L, 7L), index.search("咖啡", 0, 10));
+    }
+
+    @Test
+    void keywordIsNormalized() {
+        assertEquals(Collections.singletonList(7L), index.search(" LUCKIN", 0, 10));
+        assertEquals(Collections.singletonList(7L), index.search("n咖", 0, 10));
+    }
+
+    @Test
+    void singleCharAndMissingKeyword() {
+        assertEquals(Arrays.asList(5L, 4L), index.search("馆", 0, 10));
+        assertTrue(index.search("奶茶", 0, 10).isEmpty());
+        assertTrue(index.search("", 0, 10).isEmpty());
+        assertTrue(index.search(null, 0, 10).isEmpty());
+    }
+
+    @Test
+    void offsetPaging() {
+        assertEquals(Arrays.asList(2L, 4L), index.search("咖啡", 0, 2));
+        assertEquals(Arrays.asList(6L, 3L), index.search("咖啡", 2, 2));
+        assertEquals(Collections.singletonList(7L), index.search("咖啡", 5, 2));
+        assertTrue(index.search("咖啡", 6, 2).isEmpty());
+        assertEquals(Arrays.asList(2L, 4L), index.search("咖啡", -3, 2));
+        assertTrue(index.search("咖啡", 0, 0).isEmpty());
+    }
+
+    @Test
+    void cursorPagingMatchesSearchOrder() {
+        List<Long> ids = new ArrayList<>();
+        long[] after = null;
+        int pages = 0;
+        do {
+            ShopNameIndex.NamePage page = index.scroll("咖啡", after, 2);
+            ids.addAll(page.getIds());
+            after = page.getNext();
+            pages++;
+        } while (after != null);
+        assertEquals(index.search("咖啡", 0, 10), ids);
+        assertEquals(3, pages);
+    }
+
+    @Test
+    void cursorSkipsShopsInsertedBeforeIt() {
+        ShopNameIndex.NamePage first = index.scroll("咖啡", null, 3);
+        assertEquals(Arrays.asList(2L, 4L, 6L), first.getIds());
+        // 排在游标之前的新商铺不会出现在后面的页中 排在之后的会
+        index.put(8L, "咖啡");
+        index.put(9L, "猫咖啡");
+        ShopNameIndex.NamePage second = index.scroll("咖啡", first.getNext(), 10);
+        assertEquals(Arrays.asList(9L, 3L, 1L, 7L), second.getIds());
+        assertNull(second.getNext());
+    }
+
+    @Test
+    void renameAndRemoveUpdatePostings() {
+        index.put(2L, "奶茶");
+        assertFalse(index.search("咖啡", 0, 10).contains(2L));
+        assertEquals(Collections.singletonList(2L), index.search("奶茶", 0, 10));
+        index.put(2L, " ");
+        assertTrue(index.search("奶茶", 0, 10).isEmpty());
+    }
+}
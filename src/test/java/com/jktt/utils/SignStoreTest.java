@@ -0,0 +1,103 @@
+package com.jktt.utils;
+
+import com.jktt.mapper.SignMonthMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.BitFieldSubCommands;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class SignStoreTest {
+
+    private static final long USER_ID = 1L;
+
+    private final Set<LocalDate> signed = new HashSet<>();
+    private SignStore signStore;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        StringRedisTemplate redis = mock(StringRedisTemplate.class);
+        ValueOperations<String, String> ops = mock(ValueOperations.class);
+        when(redis.opsForValue()).thenReturn(ops);
+        // BITFIELD GET u{days} 0 按签到的日期计算 第1天在最高位
+        when(ops.bitField(anyString(), any(BitFieldSubCommands.class))).thenAnswer(invocation -> {
+            String key = invocation.getArgument(0);
+            BitFieldSubCommands commands = invocation.getArgument(1);
+            int days = commands.getSubCommands().get(0).getType().getBits();
+            YearMonth month = YearMonth.parse(key.substring(key.lastIndexOf(':') + 1),
+                    DateTimeFormatter.ofPattern("yyyyMM"));
+            long bits = 0;
+            for (int day = 1; day <= days; day++) {
+                bits = bits << 1 | (signed.contains(month.atDay(day)) ? 1 : 0);
+            }
+            return Collections.singletonList(bits);
+        });
+        signStore = new SignStore();
+        ReflectionTestUtils.setField(signStore, "stringRedisTemplate", redis);
+        ReflectionTestUtils.setField(signStore, "signMonthMapper", mock(SignMonthMapper.class));
+    }
+
+    @Test
+    void noSign() {
+        assertEquals(0, signStore.streak(USER_ID));
+    }
+
+    @Test
+    void todayNotSignedCountsFromYesterday() {
+        LocalDate today = LocalDate.now();
+        signDays(today.minusDays(3), 3);
+        assertEquals(3, signStore.streak(USER_ID));
+        signed.add(today);
+        assertEquals(4, signStore.streak(USER_ID));
+    }
+
+    @Test
+    void gapStopsStreak() {
+        LocalDate today = LocalDate.now();
+        signDays(today.minusDays(10), 5);
+        signDays(today.minusDays(2), 3);
+        assertEquals(3, signStore.streak(USER_ID));
+    }
+
+    @Test
+    void streakAcrossMonths() {
+        LocalDate today = LocalDate.now();
+        // 覆盖本月、整个上月和上上月的一部分
+        signDays(today.minusDays(69), 70);
+        assertEquals(70, signStore.streak(USER_ID));
+        signed.remove(today);
+        assertEquals(69, signStore.streak(USER_ID));
+    }
+
+    @Test
+    void streakStartingOnFirstDayOfMonth() {
+        LocalDate today = LocalDate.now();
+        LocalDate first = today.withDayOfMonth(1);
+        signDays(first, today.getDayOfMonth());
+        assertEquals(today.getDayOfMonth(), signStore.streak(USER_ID));
+        // 上个月最后一天也签了 连续天数延续到上个月
+        signed.add(first.minusDays(1));
+        assertEquals(today.getDayOfMonth() + 1, signStore.streak(USER_ID));
+    }
+
+    private void signDays(LocalDate from, int days) {
+        for (int i = 0; i < days; i++) {
+            signed.add(from.plusDays(i));
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.jktt.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SingleFlightTest {
+
+    @Test
+    void concurrentCallersShareOneLoad() throws Exception {
+        SingleFlight singleFlight = new SingleFlight();
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Future<String> first = executor.submit(() -> singleFlight.execute("k", () -> {
+                loads.incrementAndGet();
+                loading.countDown();
+                await(release);
+                return "v";
+            }));
+            loading.await();
+            Future<String> second = executor.submit(() -> singleFlight.execute("k", () -> {
+                loads.incrementAndGet();
+                return "other";
+            }));
+            // 第二个调用已经在等待第一个的结果
+            Thread.sleep(100);
+            release.countDown();
+            assertEquals("v", first.get(5, TimeUnit.SECONDS));
+            assertEquals("v", second.get(5, TimeUnit.SECONDS));
+            assertEquals(1, loads.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void errorIsPropagatedToWaitersAndKeyIsReleased() throws Exception {
+        SingleFlight singleFlight = new SingleFlight();
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<Object> first = executor.submit(() -> singleFlight.execute("k", () -> {
+                loading.countDown();
+                await(release);
+                throw new StackOverflowError("boom");
+            }));
+            loading.await();
+            Future<Object> second = executor.submit(() -> singleFlight.execute("k", () -> "other"));
+            Thread.sleep(100);
+            release.countDown();
+            ExecutionException e1 = assertThrows(ExecutionException.class, () -> first.get(5, TimeUnit.SECONDS));
+            assertTrue(e1.getCause() instanceof StackOverflowError);
+            ExecutionException e2 = assertThrows(ExecutionException.class, () -> second.get(5, TimeUnit.SECONDS));
+            assertTrue(e2.getCause() instanceof StackOverflowError);
+            // key已经移除 下一次重新加载
+            assertEquals("next", singleFlight.execute("k", () -> "next"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void runtimeExceptionIsRethrownUnwrapped() {
+        SingleFlight singleFlight = new SingleFlight();
+        IllegalStateException e = assertThrows(IllegalStateException.class,
+                () -> singleFlight.execute("k", () -> {
+                    throw new IllegalStateException("fail");
+                }));
+        assertEquals("fail", e.getMessage());
+        assertEquals("ok", singleFlight.execute("k", () -> "ok"));
+    }
+
+    @Test
+    void asyncTaskIsDedupedAndReleasedAfterError() throws Exception {
+        SingleFlight singleFlight = new SingleFlight();
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            assertTrue(singleFlight.executeAsync("k", () -> {
+                await(release);
+                done.countDown();
+                throw new AssertionError("boom");
+            }, executor));
+            // 同一个key还在执行 忽略
+            assertFalse(singleFlight.executeAsync("k", () -> { }, executor));
+            release.countDown();
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            // 任务抛出Error后key也会移除
+            long deadline = System.currentTimeMillis() + 5000;
+            boolean submitted = false;
+            while (!submitted && System.currentTimeMillis() < deadline) {
+                submitted = singleFlight.executeAsync("k", () -> { }, executor);
+                if (!submitted) {
+                    Thread.sleep(10);
+                }
+            }
+            assertTrue(submitted);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void rejectedAsyncTaskReleasesKey() {
+        SingleFlight singleFlight = new SingleFlight();
+        Executor rejecting = task -> {
+            throw new RejectedExecutionException("full");
+        };
+        assertThrows(RejectedExecutionException.class, () -> singleFlight.executeAsync("k", () -> { }, rejecting));
+        assertTrue(singleFlight.executeAsync("k", () -> { }, Runnable::run));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+}